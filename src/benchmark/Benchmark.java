@@ -0,0 +1,168 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness measuring the steady state throughput and allocation rate of one operation.<br>
+ * The operation is first repeated for some warmup iterations so the JIT compiler settles, then for measurement iterations of fixed duration.
+ * Results of the operation are consumed, so that it can't be eliminated as dead code.
+ * Allocations are counted over all threads, which includes work done by {@link electricity.Circuit#pool}.
+ */
+public abstract class Benchmark {
+
+	/**amount of warmup and measurement iterations */
+	public static int warmup = 5, iterations = 5;
+	/**duration of each iteration in ms */
+	public static int time = 1000;
+	/**minimum duration of one batch of operations between clock readings in ns */
+	static final long BatchTime = 10000;
+
+	private static volatile double sink;
+
+	public final String name;
+
+	protected Benchmark(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * prepares the state for the operation (not measured)
+	 */
+	protected void setup() throws Exception {}
+
+	/**
+	 * performs the measured operation once
+	 * @return some value depending on the work done
+	 */
+	protected abstract double run() throws Exception;
+
+	/**
+	 * releases the state of the operation (not measured)
+	 */
+	protected void teardown() throws Exception {}
+
+	/**
+	 * @return additional information to report after measuring or null
+	 */
+	protected String info() {
+		return null;
+	}
+
+	/**
+	 * runs the benchmark
+	 * @return the measured result
+	 * @throws Exception if the operation failed
+	 */
+	public Result measure() throws Exception {
+		setup();
+		try {
+			for (int i = 0; i < warmup; i++) iteration(new long[2]);
+			double[] score = new double[iterations];
+			long ops = 0, bytes = 0, nanos = 0;
+			for (int i = 0; i < iterations; i++) {
+				long[] r = new long[2];
+				long mem = allocated();
+				long t = iteration(r);
+				bytes += allocated() - mem;
+				score[i] = (double)r[0] * 1e9 / (double)t;
+				ops += r[0];
+				nanos += t;
+			}
+			return new Result(name, score, (double)nanos / (double)ops, mem() ? (double)bytes / (double)ops : Double.NaN, info());
+		} finally {
+			teardown();
+		}
+	}
+
+	/**
+	 * repeats the operation in batches for one iteration
+	 * @param r receives the amount of operations performed
+	 * @return the elapsed time in ns
+	 */
+	private long iteration(long[] r) throws Exception {
+		long end = (long)time * 1000000, t0 = System.nanoTime(), t = 0;
+		int batch = 1;
+		double x = 0;
+		while (t < end) {
+			for (int i = 0; i < batch; i++) x += run();
+			r[0] += batch;
+			long t1 = System.nanoTime() - t0;
+			if (t1 - t < BatchTime && batch < 1 << 20) batch <<= 1;
+			t = t1;
+		}
+		sink = x;
+		return t;
+	}
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private static boolean mem() {
+		return threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)threads).isThreadAllocatedMemorySupported();
+	}
+
+	/**
+	 * @return bytes allocated so far by all live threads
+	 */
+	private static long allocated() {
+		if (!mem()) return 0;
+		long n = 0;
+		for (long b : ((com.sun.management.ThreadMXBean)threads).getThreadAllocatedBytes(threads.getAllThreadIds()))
+			if (b > 0) n += b;
+		return n;
+	}
+
+	/**
+	 * The measured performance of one benchmark
+	 */
+	public static class Result {
+		public final String name;
+		/**operations per second of each iteration */
+		public final double[] score;
+		/**average time and allocated bytes per operation */
+		public final double nsPerOp, bytesPerOp;
+		public final String info;
+
+		Result(String name, double[] score, double nsPerOp, double bytesPerOp, String info) {
+			this.name = name;
+			this.score = score;
+			this.nsPerOp = nsPerOp;
+			this.bytesPerOp = bytesPerOp;
+			this.info = info;
+		}
+
+		public double mean() {
+			double s = 0;
+			for (double x : score) s += x;
+			return s / (double)score.length;
+		}
+
+		/**@return standard deviation of the scores */
+		public double error() {
+			if (score.length < 2) return Double.NaN;
+			double m = mean(), s = 0;
+			for (double x : score) s += (x - m) * (x - m);
+			return Math.sqrt(s / (double)(score.length - 1));
+		}
+
+		/**@return allocation rate in MB/s */
+		public double allocRate() {
+			return bytesPerOp * 1e3 / nsPerOp;
+		}
+
+		static final String Header = String.format(Locale.ROOT, "%-40s %14s %10s %12s %10s %9s", "Benchmark", "ops/s", "error", "ns/op", "B/op", "MB/s");
+
+		@Override
+		public String toString() {
+			String s = String.format(Locale.ROOT, "%-40s %14.1f %10.1f %12.1f %10.1f %9.1f", name, mean(), error(), nsPerOp, bytesPerOp, allocRate());
+			return info == null ? s : s + "  " + info;
+		}
+
+		/**@return the result as line of comma separated values */
+		public String csv() {
+			return String.format(Locale.ROOT, "%s,%g,%g,%g,%g,%g", name, mean(), error(), nsPerOp, bytesPerOp, allocRate());
+		}
+	}
+
+}
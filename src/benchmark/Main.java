@@ -0,0 +1,51 @@
+package benchmark;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmark suites and prints their results.<br>
+ * Arguments: {@code [-wi warmup iterations] [-i iterations] [-t ms per iteration] [-d plan folder] [-csv result file] [name patterns...]}<br>
+ * Only benchmarks whose name contains a match of one of the patterns are run (all if none given).
+ * The optional CSV file allows comparing the results of different versions.
+ */
+public class Main {
+
+	public static void main(String[] args) throws Exception {
+		File dir = new File("testCircuits"), csv = null;
+		ArrayList<Pattern> filter = new ArrayList<Pattern>();
+		for (int i = 0; i < args.length; i++)
+			switch(args[i]) {
+			case "-wi": Benchmark.warmup = Integer.parseInt(args[++i]); break;
+			case "-i": Benchmark.iterations = Integer.parseInt(args[++i]); break;
+			case "-t": Benchmark.time = Integer.parseInt(args[++i]); break;
+			case "-d": dir = new File(args[++i]); break;
+			case "-csv": csv = new File(args[++i]); break;
+			default: filter.add(Pattern.compile(args[i]));
+			}
+		ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+		list.addAll(SolverBenchmark.all());
+		list.addAll(UpdateBenchmark.all());
+		list.addAll(SimulateBenchmark.all(dir));
+		System.out.println(Benchmark.Result.Header);
+		try (PrintWriter out = csv == null ? null : new PrintWriter(csv)) {
+			if (out != null) out.println("benchmark,ops/s,error,ns/op,B/op,MB/s");
+			for (Benchmark b : list) {
+				if (!matches(b.name, filter)) continue;
+				Benchmark.Result r = b.measure();
+				System.out.println(r);
+				if (out != null) out.println(r.csv());
+			}
+		}
+	}
+
+	static boolean matches(String name, ArrayList<Pattern> filter) {
+		if (filter.isEmpty()) return true;
+		for (Pattern p : filter)
+			if (p.matcher(name).find()) return true;
+		return false;
+	}
+
+}
@@ -0,0 +1,127 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import electricity.Circuit;
+import electricity.MatrixCache;
+import startup.Assembler;
+
+/**
+ * Steady state throughput of {@link Circuit#simulate(double)} for one circuit plan, one operation is one tick.<br>
+ * The measured samples are discarded instead of written to files.
+ */
+public class SimulateBenchmark extends Benchmark {
+
+	/**edge lengths of the generated diode grids */
+	static final int[] GridSizes = {4, 8, 16, 32};
+
+	final File file;
+	protected Assembler.Plan plan;
+
+	SimulateBenchmark(String name, File file) {
+		super(name);
+		this.file = file;
+	}
+
+	/**
+	 * @param dir folder of circuit plans
+	 * @return benchmarks for all plans in the folder and for generated circuits of growing size
+	 * @throws IOException if writing the generated plans failed
+	 */
+	static List<Benchmark> all(File dir) throws IOException {
+		ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+		File[] files = dir.listFiles((d, n) -> n.endsWith(".txt"));
+		if (files != null)
+			for (File f : files)
+				list.add(new SimulateBenchmark("simulate:" + f.getName().replace(".txt", ""), f));
+		for (int n : GridSizes)
+			list.add(new SimulateBenchmark("simulate.grid:n=" + n, plan(grid(n))));
+		return list;
+	}
+
+	@Override
+	protected void setup() throws Exception {
+		Circuit.reset();
+		Circuit.pool = null;
+		plan = Assembler.load(file, false);
+	}
+
+	@Override
+	protected double run() {
+		Circuit.simulate(plan.dt);
+		return plan.dt;
+	}
+
+	@Override
+	protected void teardown() {
+		Circuit.reset();
+		Circuit.pool = null;
+	}
+
+	@Override
+	protected String info() {
+		int nodes = 0;
+		long hits = 0, misses = 0;
+		for (Circuit c : Circuit.circuits) {
+			MatrixCache cache = c.cache();
+			nodes += c.nodes();
+			hits += cache.hits();
+			misses += cache.misses();
+		}
+		return String.format("%d circuits, %d nodes, %d cache hits, %d misses", Circuit.circuits.size(), nodes, hits, misses);
+	}
+
+	/**
+	 * @param text circuit plan
+	 * @return a temporary file containing the plan
+	 * @throws IOException if writing failed
+	 */
+	static File plan(String text) throws IOException {
+		File file = File.createTempFile("bench", ".txt");
+		file.deleteOnExit();
+		try (Writer w = new FileWriter(file)) {
+			w.write(text);
+		}
+		return file;
+	}
+
+	/**
+	 * @param n edge length
+	 * @return plan of a grid of n * n junctions randomly connected by resistors, diodes, capacitors and inductors
+	 */
+	static String grid(int n) {
+		Random rand = new Random(1);
+		String[] h = {"-R1-", "-R2-", "->--", "-R1-", "-R2-", "-<--"};
+		String[] v = {"R1", "R2", "C1", "R1", "R2", "L1", "V ", "^ "};
+		StringBuilder sb = new StringBuilder("XY[1, 200, 0.01]\nMr[1] Mg[0]\nUa[10] R1[100] R2[220] C1[0, 0.5] L1[0, 2]\n;\n");
+		for (int r = 0; r < n; r++) {
+			for (int c = 0; c < n; c++) {
+				sb.append('*');
+				if (c < n - 1) sb.append(r == 0 && c == 0 ? "-Mr-" : h[rand.nextInt(h.length)]);
+			}
+			sb.append('\n');
+			if (r == n - 1) break;
+			StringBuilder line = new StringBuilder();
+			for (int c = 0; c < n; c++) {
+				String t = r == 0 && c == 0 ? "Ua" : r == 1 && c == 1 ? "Mg" : v[rand.nextInt(v.length)];
+				line.append(t).append("   ");
+			}
+			String cable = repeat("|    ", n).trim();
+			sb.append(cable).append('\n').append(line.toString().trim()).append('\n').append(cable).append('\n');
+		}
+		return sb.toString();
+	}
+
+	static String repeat(String s, int n) {
+		StringBuilder sb = new StringBuilder(s.length() * n);
+		for (int i = 0; i < n; i++) sb.append(s);
+		return sb.toString();
+	}
+
+}
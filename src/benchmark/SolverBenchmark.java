@@ -0,0 +1,131 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import electricity.MathUtil;
+import electricity.SparseLU;
+import electricity.SparseMatrix;
+
+/**
+ * Solves random equation systems of given size and density, once with the dense {@link MathUtil#solveMatrix(double[][])}
+ * and once by sparse LU factorization reusing the symbolic analysis, like circuits do on a cache miss.<br>
+ * The same is done for the equations of resistor grids, which have the structure circuits actually produce.
+ */
+public class SolverBenchmark extends Benchmark {
+
+	static final int[] Sizes = {16, 64, 256};
+	static final double[] Densities = {1.0, 0.1, 0.02};
+	/**edge lengths of the resistor grids */
+	static final int[] GridSizes = {4, 8, 16};
+
+	final int n, params;
+	final double density;
+	/**edge length of the resistor grid or 0 for random equations */
+	final int grid;
+	final boolean sparse;
+	private double[][] eq, work;
+	private SparseMatrix mat;
+	private SparseLU.Symbolic symbolic;
+	private double[] values, result;
+
+	SolverBenchmark(int n, double density, boolean sparse) {
+		super(String.format("solver.%s:n=%d,density=%s", sparse ? "sparseLU" : "solveMatrix", n, density));
+		this.n = n;
+		this.params = 1;
+		this.density = density;
+		this.grid = 0;
+		this.sparse = sparse;
+	}
+
+	SolverBenchmark(int grid, boolean sparse) {
+		super(String.format("solver.%s:grid=%d", sparse ? "sparseLU" : "solveMatrix", grid));
+		//a potential for each junction and a current for each resistor
+		this.n = grid * grid + 2 * grid * (grid - 1);
+		this.params = grid * (grid - 1) / 2;
+		this.density = 0;
+		this.grid = grid;
+		this.sparse = sparse;
+	}
+
+	static List<Benchmark> all() {
+		ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+		for (int n : Sizes)
+			for (double d : Densities) {
+				list.add(new SolverBenchmark(n, d, false));
+				list.add(new SolverBenchmark(n, d, true));
+			}
+		for (int n : GridSizes) {
+			list.add(new SolverBenchmark(n, false));
+			list.add(new SolverBenchmark(n, true));
+		}
+		return list;
+	}
+
+	@Override
+	protected void setup() {
+		eq = new double[n][n + params];
+		mat = new SparseMatrix(n, n + params);
+		if (grid > 0) grid();
+		else random();
+		work = new double[n][];
+		values = new double[params];
+		values[0] = 1.0;
+		result = new double[n];
+		symbolic = SparseLU.analyze(mat, n).symbolic();
+	}
+
+	private void set(int i, int j, double x) {
+		mat.set(i, j, eq[i][j] += x);
+	}
+
+	private void random() {
+		//diagonally dominant so that it's always solvable, with one constant right hand side column
+		Random rand = new Random(n * 31 + (long)(density * 1000));
+		for (int i = 0; i < n; i++) {
+			double sum = 0;
+			for (int j = 0; j < n; j++)
+				if (i != j && rand.nextDouble() < density) {
+					double x = rand.nextDouble() * 2.0 - 1.0;
+					set(i, j, x);
+					sum += Math.abs(x);
+				}
+			set(i, i, sum + 1.0);
+			set(i, n, rand.nextDouble());
+		}
+	}
+
+	private void grid() {
+		//like the circuit's components: Ohm's law for each resistor, Kirchhoff's current law for each junction but the grounded first one
+		Random rand = new Random(grid);
+		int nodes = grid * grid, e = nodes, s = 0;
+		set(0, 0, 1.0);
+		for (int a = 0; a < nodes; a++)
+			for (int b : new int[] {a % grid < grid - 1 ? a + 1 : -1, a + grid < nodes ? a + grid : -1}) {
+				if (b < 0) continue;
+				set(e, e, 100.0 + rand.nextDouble() * 1000.0);
+				set(e, a, -1.0);
+				set(e, b, 1.0);
+				//some of them in series with a voltage source
+				if ((e & 3) == 0 && s < params) set(e, n + s++, 1.0);
+				if (a != 0) set(a, e, 1.0);
+				set(b, e, -1.0);
+				e++;
+			}
+	}
+
+	@Override
+	protected double run() {
+		if (sparse) {
+			SparseLU lu = SparseLU.factor(symbolic, mat);
+			lu.solve(values, result);
+			return result[0];
+		}
+		//the copy is part of the measurement, it's small compared to the elimination
+		for (int i = 0; i < n; i++) work[i] = eq[i].clone();
+		MathUtil.solveMatrix(work);
+		return work[n - 1][n];
+	}
+
+}
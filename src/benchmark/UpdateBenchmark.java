@@ -0,0 +1,115 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import electricity.Circuit;
+import electricity.IResistorMergable;
+import electricity.IScheduled;
+import electricity.MathUtil;
+import electricity.Pin;
+import electricity.SparseMatrix;
+import electricity.components.BiPole;
+import electricity.components.Resistor;
+import electricity.components.VoltageSource;
+import startup.Assembler;
+
+/**
+ * Ticks of a resistor ladder whose switched resistors all toggle on every tick, so the equations are updated for a different switch state each time.<br>
+ * With the default cache budget the two alternating states are always cached, with no budget the solution has to be computed again on every tick.
+ */
+public class UpdateBenchmark extends SimulateBenchmark {
+
+	static final int[] Sizes = {8, 32, 128};
+	/**[s] tick interval */
+	static final double Interval = 0.01;
+
+	final int n;
+	final boolean miss;
+
+	UpdateBenchmark(int n, boolean miss) {
+		super(String.format("update.%s:n=%d", miss ? "miss" : "hit", n), null);
+		this.n = n;
+		this.miss = miss;
+	}
+
+	static List<Benchmark> all() {
+		ArrayList<Benchmark> list = new ArrayList<Benchmark>();
+		for (int n : Sizes) {
+			list.add(new UpdateBenchmark(n, false));
+			list.add(new UpdateBenchmark(n, true));
+		}
+		return list;
+	}
+
+	@Override
+	protected void setup() throws Exception {
+		Circuit.reset();
+		Circuit.pool = null;
+		plan = new Assembler.Plan();
+		plan.dt = Interval;
+		ladder(n);
+		if (miss)
+			for (Circuit c : Circuit.circuits)
+				c.cache().setBudget(0);
+	}
+
+	/**
+	 * builds a voltage source feeding a ladder of n resistor steps with a toggling resistor to ground on each step
+	 */
+	static void ladder(int n) {
+		VoltageSource source = new VoltageSource(10);
+		Pin ground = source.A, top = source.B;
+		for (int i = 0; i < n; i++) {
+			Resistor r = new Resistor(100);
+			Toggle t = new Toggle(220, Interval);
+			Circuit.connectPins(top, r.A);
+			Circuit.connectPins(r.B, t.B);
+			Circuit.connectPins(ground, t.A);
+			top = t.B;
+		}
+	}
+
+	/**
+	 * Resistor switching on and off once per tick, in place of the randomly switching work resistor, so the ladder only alternates between two switch states.
+	 */
+	static class Toggle extends BiPole implements IScheduled, IResistorMergable {
+
+		/**[Ohm] resistance when turned on, [s] tick interval */
+		final double R, dt;
+		private boolean on;
+		private int swId;
+
+		Toggle(double R, double dt) {
+			this.R = R;
+			this.dt = dt;
+		}
+
+		@Override
+		public void setEquations(SparseMatrix mat, int states) {
+			mat.set(id, id, (on ? R : MathUtil.BlockResistance) + IResistorMergable.Rc(A));
+			mat.set(id, A.Id_U, -1.0);
+			mat.set(id, B.Id_U, 1.0);
+		}
+
+		@Override
+		public void trigger(double time) {
+			circuit.setSwitch(swId, on = !on);
+			//due in the middle of the next tick, so rounding of the tick times can't skip or double a toggle
+			circuit.schedule(dt * 0.5, this);
+		}
+
+		@Override
+		public int init() {
+			swId = circuit.nextSwitch();
+			circuit.setSwitch(swId, on);
+			circuit.schedule(dt * 0.5, this);
+			return super.init();
+		}
+
+		@Override
+		public void updateResistor() {}
+
+	}
+
+}
@@ -1,15 +1,16 @@
 package electricity;
 
-import static electricity.MathUtil.*;
-
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import electricity.components.BiPole;
 import electricity.components.Ground;
@@ -18,47 +19,143 @@ import electricity.components.Resistor;
 
 public class Circuit {
 
-	private Collection<Component> components;
+	/**amount of incremental result updates after which the result is computed from scratch again to not accumulate rounding errors */
+	static final int RefreshInterval = 64;
+
+	/**components in the order they were added, which determines the equation layout, each knowing its {@link Component#index} in here */
+	private Component[] components = new Component[4];
+	private int count;
 	private ArrayList<Parameter> parameters;
 	public ArrayList<INotify> notifier, preNotifier;
-	private BitSet switchStates;
-	private HashMap<BitSet, double[][]> matrixCache;
+	/**timed events of components, processed only on the ticks they are due */
+	private final Scheduler events = new Scheduler();
+	/**[s] simulated time of this circuit */
+	private double time;
+	/**switch states packed into bit words and their hash for cache lookup */
+	private long[] switchStates = new long[1];
+	private int switchHash;
+	private MatrixCache matrixCache = new MatrixCache();
+	private final Metrics metrics = new Metrics(this);
+	/**equations of the current and of the last factorized switch state */
+	private SparseMatrix equations, factorized;
+	private SparseLU.Symbolic symbolic;
+	/**circuit of the same layout to take the symbolic analysis from or null */
+	private Circuit template;
+	private SparseLU factorization;
 	private int states, switches, topolIdx;
-	private double[][] matrix;
+	/**components next to connections removed since the last {@link #scan()} */
+	private final ArrayList<Component> cuts = new ArrayList<Component>();
+	/**scratch space of {@link #scan()}: the search that found each component by index, as offset above {@link #markBase}, and the found components */
+	private int[] marks = new int[0];
+	private int markBase;
+	private final ArrayList<Component> found = new ArrayList<Component>();
+	/**sequence number identifying this circuit in metrics and events */
+	private final int id = nextId++;
+	/**hash of the equation layout, used as key in the SolutionStore */
+	private long topology;
+	/**whether the explicit solution matrix is cached instead of the LU factorization and whether it's computed by dense elimination, which is faster for small circuits */
+	private boolean denseCache, denseSolve;
+	private Solution matrix;
 	private double[] values, result;
+	/**parameter values the result was computed from, their changes and the indices of changed parameters */
+	private double[] evaluated, delta;
+	private int[] changed;
+	private int nChanged, deltaUpdates;
+	/**start time of a sampled evaluation or Long.MIN_VALUE */
+	private long evalStart;
 	private Constant constant;
 	private boolean updateMatrix, updateValues, needsSetup;
+	/**exact discretization of the reactive components or null if not all listeners declare what they read */
+	private Propagator propagator;
+	/**whether the circuit is currently advanced by the propagator */
+	private boolean propagating;
+	/**amount of ticks since the switch states last changed or the propagator was left */
+	private long steady;
+	/**integration of the reactive components, taken from {@link #integration} on setup */
+	private Integration mode = Integration.EXPLICIT;
+	/**[s] tick length the equations are currently assembled for, or 0 if no component {@link #useStep() uses} it */
+	private double h;
+	/**whether the equations are currently assembled for a backward Euler step, whether the tick length or that changed since the last lookup and whether the next tick starts the integration */
+	private boolean euler, updateStep, restart;
+	/**largest relative integration error and shortest time until an expected switch change reported during the last tick, read by the {@link Stepper} */
+	double error, horizon = Double.POSITIVE_INFINITY;
 	public byte skipTick;
 
 	private Circuit() {
-		components = new HashSet<Component>();
 		circuits.add(this);
 	}
 
 	private void addComp(Component comp) {
 		if (comp.circuit != this) {
 			comp.circuit = this;
-			components.add(comp);
+			//insertion order keeps the equation layout reproducible across runs for the SolutionStore
+			if (count == components.length) components = Arrays.copyOf(components, count * 2);
+			components[comp.index = count++] = comp;
 			needsSetup = true;
 			if (comp instanceof Junction)
 				topolIdx += ((Junction)comp).pins.length - 2;
 		}
 	}
 
+	private boolean contains(Component comp) {
+		return comp != null && comp.circuit == this && comp.index < count && components[comp.index] == comp;
+	}
+
 	private void removeComp(Component comp) {
-		if (comp.circuit == this) {
+		if (contains(comp)) {
 			comp.circuit = null;
-			components.remove(comp);
+			//the last one takes its place
+			Component last = components[--count];
+			components[last.index = comp.index] = last;
+			components[count] = null;
 			needsSetup = true;
 			if (comp instanceof Junction)
 				topolIdx -= ((Junction)comp).pins.length - 2;
 		}
 	}
 
+	public int id() {return id;}
 	public int nodes() {return states;}
 	public int parameters() {return parameters.size();}
 	public int switches() {return switches;}
-	public int listener() {return notifier.size() + preNotifier.size();}
+	public int listener() {return notifier.size() + preNotifier.size() + events.size();}
+	/**@return [s] simulated time */
+	public double time() {return time;}
+	/**@return the components in the order they were added, which determines the equation layout */
+	public Collection<Component> components() {return Collections.unmodifiableList(Arrays.asList(components).subList(0, count));}
+	/**@return [s] tick length the equations are assembled for, only set if a component {@link #useStep() uses} it */
+	public double stepLength() {return h;}
+	/**@return whether the current tick is integrated by backward Euler, which companion models use instead of the trapezoidal rule after switch changes */
+	public boolean euler() {return euler;}
+	/**@return integration of the reactive components, fixed on setup */
+	public Integration integration() {return mode;}
+	/**@return the cache of solved equation systems (for statistics and memory budget) */
+	public MatrixCache cache() {return matrixCache;}
+
+	/**
+	 * makes this circuit use the solution cache of another instance of the same circuit, so solutions computed for either are reused by both.<br>
+	 * Only valid if both were built the same way (same components with the same properties in the same order) and don't change their topology,
+	 * which is why later setups of either keep the shared solutions instead of clearing them.
+	 * @param other the circuit to share the cache with
+	 */
+	public void share(Circuit other) {
+		if (propagator != null) propagator.release(matrixCache);
+		matrixCache.users--;
+		matrixCache = other.matrixCache;
+		matrixCache.users++;
+	}
+
+	/**
+	 * makes this circuit reuse the elimination order of another circuit built the same way, but possibly with different component values.<br>
+	 * It is only taken if that circuit was already factorized and ended up with the same equation layout, otherwise this circuit does its own analysis.
+	 * @param template the circuit to take the symbolic analysis from
+	 */
+	public void reuse(Circuit template) {
+		this.template = template;
+	}
+
+	/**@return runtime statistics of this circuit */
+	public Metrics metrics() {return metrics;}
 
 	public int getConstant() {
 		if (constant == null) {
@@ -73,8 +170,18 @@ public class Circuit {
 		return parameters.size() - 1;
 	}
 
+	/**
+	 * called by components during {@link Component#init()} whose equations depend on the tick length, so they are assembled and cached for each tick length.<br>
+	 * This also disables the {@link Propagator}, whose transition matrix assumes equations of the current state instead of the next one.
+	 */
+	public void useStep() {
+		if (h == 0) h = Double.NaN;
+	}
+
 	public void setValue(int i, double val) {
-		if (values[i] != val) {
+		double x = values[i];
+		if (x != val) {
+			if (x == evaluated[i] && nChanged < changed.length) changed[nChanged++] = i;
 			values[i] = val;
 			updateValues = true;
 		}
@@ -85,161 +192,636 @@ public class Circuit {
 	}
 
 	public int nextSwitch() {
+		if (switches >> 6 >= switchStates.length)
+			switchStates = Arrays.copyOf(switchStates, switchStates.length * 2);
 		return switches++;
 	}
 
 	public void setSwitch(int i, boolean state) {
-		if (switchStates.get(i) ^ state) {
-			switchStates.flip(i);
+		if (getSwitch(i) ^ state) {
+			switchStates[i >> 6] ^= 1L << i;
+			switchHash ^= MatrixCache.bitHash(i);
+			metrics.flip(i);
 			updateMatrix = true;
 		}
 	}
 
 	public boolean getSwitch(int i) {
-		return switchStates.get(i);
+		return (switchStates[i >> 6] >>> i & 1) != 0;
+	}
+
+	/**
+	 * schedules an event to be triggered at the end of the tick during which the given time passes
+	 * @param delay [s] time from now
+	 * @param e the event
+	 */
+	public void schedule(double delay, IScheduled e) {
+		events.add(time + delay, e);
+	}
+
+	/**
+	 * reports the estimated local integration error of a state variable for adaptive time stepping
+	 * @param err estimated error of this tick
+	 * @param scale magnitude of the variable the error is relative to
+	 */
+	public void reportError(double err, double scale) {
+		double e = err / (Math.abs(scale) + Stepper.ErrorFloor);
+		if (e > error) error = e;
+	}
+
+	/**
+	 * reports an expected switch state change for adaptive time stepping
+	 * @param t [s] estimated time until the change
+	 */
+	public void reportEvent(double t) {
+		if (t < horizon) horizon = t;
 	}
 
 	private void setup() {
+		Events.Setup event = Events.recording() ? new Events.Setup() : null;
+		if (event != null) event.begin();
 		states = 0;
 		switches = 0;
-		if (switchStates != null) switchStates.clear();
-		else switchStates = new BitSet();
-		if (matrixCache != null) matrixCache.clear();
-		else matrixCache = new HashMap<BitSet, double[][]>();
+		Arrays.fill(switchStates, 0);
+		switchHash = 0;
+		//a shared cache has a fixed layout and holds the solutions of the other instances too
+		if (matrixCache.users == 1) matrixCache.clear();
 		if (preNotifier != null) preNotifier.clear();
 		else preNotifier = new ArrayList<INotify>();
 		if (notifier != null) notifier.clear();
 		else notifier = new ArrayList<INotify>();
+		events.clear();
 		if (parameters != null) parameters.clear();
 		else parameters = new ArrayList<Parameter>();
 		constant = null;
+		mode = integration;
+		h = 0;
 		Ground ground = null;
-		for (Iterator<Component> it = components.iterator(); it.hasNext();) {
-			Component comp = it.next();
+		Component[] owners = new Component[16];
+		for (int i = 0; i < count; i++) {
+			Component comp = components[i];
 			if (ground == null && comp instanceof Junction) {
-				comp = ground = new Ground(((Junction)comp).pins);
-				comp.circuit = this;
-				it.remove();
+				//the first junction becomes the ground, which stays in its place for later setups
+				if (!(comp instanceof Ground)) {
+					comp = new Ground(((Junction)comp).pins);
+					comp.circuit = this;
+					components[comp.index = i] = comp;
+				}
+				ground = (Ground)comp;
 			}
 			comp.id = states;
+			int sw = switches;
 			states += comp.init();
+			if (switches > owners.length) owners = Arrays.copyOf(owners, Math.max(switches, owners.length * 2));
+			Arrays.fill(owners, sw, switches, comp);
+		}
+		metrics.setup(Arrays.copyOf(owners, switches));
+		topology = ((long)states * 31 + parameters.size()) * 31 + switches;
+		for (int i = 0; i < count; i++) {
+			Component comp = components[i];
+			topology = (topology * 0x9E3779B97F4A7C15L + comp.getClass().getName().hashCode()) * 31 + comp.id;
 		}
-		if (ground != null) components.add(ground);
 		values = new double[parameters.size()];
+		evaluated = new double[values.length];
+		delta = new double[values.length];
+		changed = new int[values.length];
+		nChanged = 0;
 		result = new double[states];
+		equations = new SparseMatrix(states, states + values.length);
+		factorized = new SparseMatrix(states, states + values.length);
+		symbolic = null;
+		factorization = null;
+		denseSolve = false;
 		for (Parameter par : parameters) par.setValue(values);
+		//companion models advance on their own, so only explicit integration can be propagated
+		if (propagator != null) propagator.release(matrixCache);
+		propagator = h != 0 ? null : Propagator.of(preNotifier, notifier);
+		steady = 0;
+		//the propagator took the reactive listeners themselves
+		if (grouped) {
+			group(preNotifier);
+			group(notifier);
+		}
+		propagating = false;
+		euler = updateStep = false;
+		restart = true;
 		needsSetup = false;
 		updateMatrix = true;
+		if (event != null && event.shouldCommit()) {
+			event.circuit = id;
+			event.components = count;
+			event.nodes = states;
+			event.parameters = values.length;
+			event.switches = switches;
+			event.commit();
+		}
 	}
 
 	public void update(double dt) {
-		if(topolIdx < 0) return;//No closed circuits -> No current flow -> nothing to simulate
-		if((topolIdx & 1) != 0) throw test();//topological index can only be uneven if there are unconnected pins
-		if(needsSetup) setup();
+		if (propagating && propagate(dt)) return;
+		if (!beginTick(dt)) return;
 		updateData();
 		for (INotify n : preNotifier) n.update(result, dt);
-		if (skipTick > 0) {
-			skipTick = -1;
-			return;
-		} else skipTick = 0;
+		if (!resumeTick(dt)) return;
 		updateData();
 		for (INotify n : notifier) n.update(result, dt);
+		endTick(dt);
+		if (updateMatrix) steady = 0;
+		else if (exact && propagator != null && (++steady >= propagator.breakEven(matrix, preNotifier.size() + notifier.size()) || propagator.ready(matrix, values, dt))) {
+			//the reactive states are taken over from here on, once the switch state lasted long enough that it likely pays off to discretize it
+			propagator.enter(matrix, values, states, dt, matrixCache);
+			propagating = true;
+			updateValues = false;
+			nChanged = 0;
+		}
+	}
+
+	/**
+	 * simulates multiple ticks, stretches without switching and without listeners are advanced at once.
+	 * @param dt [s] time interval of each tick
+	 * @param ticks amount of ticks
+	 */
+	public void update(double dt, int ticks) {
+		while (ticks > 0) {
+			if (propagating && !needsSetup && !updateMatrix && !updateValues && preNotifier.isEmpty() && propagator.others.length == 0 && dt == propagator.dt()) {
+				//until the tick during which the next event is due
+				double next = events.next();
+				long k = next == Double.POSITIVE_INFINITY ? ticks : Math.min(ticks, (long)Math.ceil((next - time) / dt) - 1);
+				if (k > 1) {
+					propagator.jump(k);
+					time += (double)k * dt;
+					ticks -= k;
+					metrics.ticks.add(k);
+					metrics.propagated.add(k);
+					continue;
+				}
+			}
+			update(dt);
+			ticks--;
+		}
+	}
+
+	/**
+	 * does a tick with the {@link Propagator}, only computing the state variables that listeners read
+	 * @return false if it can't be used anymore, so a normal tick must be done instead
+	 */
+	private boolean propagate(double dt) {
+		Propagator p = propagator;
+		if (needsSetup || updateMatrix || updateValues || dt != p.dt()) {
+			leave();
+			return false;
+		}
+		metrics.ticks.increment();
+		p.outputs(result);
+		for (int i = 0, n = preNotifier.size(); i < n; i++) preNotifier.get(i).update(result, dt);
+		if (updateMatrix || skipTick > 0) {
+			//switches change during this tick, so it's finished the normal way
+			leave();
+			if (!resumeTick(dt)) return true;
+			updateData();
+			for (INotify n : notifier) n.update(result, dt);
+			endTick(dt);
+			return true;
+		}
+		for (INotify n : p.others) n.update(result, dt);
+		p.tick();
+		metrics.propagated.increment();
+		endTick(dt);
+		return true;
+	}
+
+	/**
+	 * hands the reactive states back from the {@link Propagator} and makes the next evaluation a complete one
+	 */
+	private void leave() {
+		propagating = false;
+		steady = 0;
+		propagator.leave(values);
+		nChanged = 0;
+		updateValues = true;
+		deltaUpdates = RefreshInterval;
+	}
+
+	/**
+	 * replaces the {@link IGroupable} listeners of the same class by their {@link Group}, which takes the place of the first one
+	 */
+	private static void group(ArrayList<INotify> list) {
+		HashMap<Class<?>, Group> groups = null;
+		int n = 0;
+		for (int i = 0, m = list.size(); i < m; i++) {
+			INotify l = list.get(i);
+			if (l instanceof IGroupable) {
+				if (groups == null) groups = new HashMap<Class<?>, Group>();
+				Group g = groups.get(l.getClass());
+				if (g == null && !groups.containsKey(l.getClass())) {
+					groups.put(l.getClass(), g = ((IGroupable)l).newGroup());
+					if (g != null) list.set(n++, g);
+				}
+				if (g != null) {
+					g.add((IGroupable)l);
+					continue;
+				}
+			}
+			list.set(n++, l);
+		}
+		list.subList(n, list.size()).clear();
+	}
+
+	/**
+	 * @param dt [s] proposed tick length
+	 * @return false if there is nothing to simulate
+	 */
+	private boolean beginTick(double dt) {
+		if(topolIdx < 0) return false;//No closed circuits -> No current flow -> nothing to simulate
+		if((topolIdx & 1) != 0) throw test();//topological index can only be uneven if there are unconnected pins
+		if (propagating) leave();
+		if(needsSetup) setup();
+		metrics.ticks.increment();
+		setStep(dt, restart);
+		restart = false;
+		return true;
+	}
+
+	/**
+	 * selects the equations of the companion models for the given tick
+	 * @param dt [s] tick length
+	 * @param euler whether to use backward Euler, in trapezoidal mode only done on the first tick and on switch changes because the trapezoidal rule makes jumps ring
+	 */
+	private void setStep(double dt, boolean euler) {
+		if (h == 0) return;
+		euler |= mode == Integration.EULER;
+		if (dt != h || euler != this.euler) {
+			h = dt;
+			this.euler = euler;
+			updateStep = true;
+		}
+	}
+
+	/**
+	 * @return the tick length key of the current equations in the caches
+	 */
+	private double stepKey() {
+		return euler ? -h : h;
+	}
+
+	/**
+	 * advances the time and triggers the events that became due
+	 */
+	private void endTick(double dt) {
+		double t = time += dt, next = events.next();
+		if (next <= t) {
+			events.run(t);
+			next = events.next();
+		}
+		if (next < Double.POSITIVE_INFINITY) reportEvent(next - t);
+	}
+
+	/**
+	 * @param dt [s] final tick length
+	 * @return false if a component requested to skip the rest of this tick
+	 */
+	private boolean resumeTick(double dt) {
+		if (skipTick > 0) {
+			metrics.reruns.increment();
+			skipTick = -1;
+			return false;
+		}
+		skipTick = 0;
+		setStep(dt, euler || updateMatrix);
+		return true;
 	}
 
 	private void updateData() {
-		if (updateMatrix) {
-			matrix = matrixCache.get(switchStates);
+		if (prepare()) evaluate();
+	}
+
+	/**
+	 * evaluates the solution for all parameters
+	 */
+	private void evaluate() {
+		matrix.solve(values, result);
+		evaluated();
+		if (evalStart != Long.MIN_VALUE) metrics.evalTime.record(System.nanoTime() - evalStart);
+	}
+
+	/**
+	 * looks up the solution for the current switch states and applies changed parameters incrementally if possible.
+	 * @return whether the solution still needs to be evaluated for all parameters, followed by {@link #evaluated()}
+	 */
+	private boolean prepare() {
+		if (updateMatrix || updateStep) {
+			matrix = matrixCache.get(switchStates, switchHash, stepKey());
 			if (matrix == null) {
-				double[][] mat = new double[states][states + parameters.size()];
-				for (Component comp : components) comp.setEquations(mat, states);
-				solveMatrix(mat);
-				matrix = new double[states][parameters.size()];
-				for (int i = 0; i < states; i++)
-					System.arraycopy(mat[i], states, matrix[i], 0, parameters.size());
-				matrixCache.put((BitSet)switchStates.clone(), matrix);
+				Events.CacheMiss event = Events.recording() ? new Events.CacheMiss() : null;
+				if (event != null) event.begin();
+				long t = System.nanoTime();
+				matrix = solve();
+				metrics.solveTime.record(System.nanoTime() - t);
+				if (event != null && event.shouldCommit()) {
+					event.circuit = id;
+					event.rows = states;
+					event.columns = states + values.length;
+					event.switches = switches;
+					event.solution = matrix.getClass().getSimpleName();
+					event.memory = matrix.memory();
+					event.commit();
+				}
+				matrixCache.put(switchStates, switchHash, stepKey(), matrix);
 			}
-			updateMatrix = false;
+			//switches changed, so resolve the transition with short steps
+			if (updateMatrix) horizon = 0;
+			updateMatrix = updateStep = false;
+			deltaUpdates = RefreshInterval;
 			updateValues = true;
 		}
-		if (updateValues) {
-			for (int i = 0; i < states; i++) {
-				double[] row = matrix[i];
-				double x = 0;
-				for (int j = 0; j < values.length; j++)
-					x += row[j] * values[j];
-				result[i] = x;
+		if (!updateValues) return false;
+		updateValues = false;
+		boolean timed = metrics.evaluation();
+		long t = timed ? System.nanoTime() : 0;
+		//only apply the changes if few parameters changed since the last evaluation
+		int n = 0;
+		if (nChanged * 2 <= values.length && ++deltaUpdates <= RefreshInterval) {
+			for (int k = 0; k < nChanged; k++) {
+				int i = changed[k];
+				double x = values[i];
+				if (x == evaluated[i]) continue;
+				delta[n] = x - evaluated[i];
+				changed[n++] = i;
+				evaluated[i] = x;
+			}
+			nChanged = 0;
+			if (n == 0) return false;
+			if (matrix.update(changed, delta, n, result)) {
+				if (timed) metrics.evalTime.record(System.nanoTime() - t);
+				return false;
 			}
 		}
+		evalStart = timed ? t : Long.MIN_VALUE;
+		return true;
+	}
+
+	/**
+	 * called after the solution was evaluated for all parameters
+	 */
+	private void evaluated() {
+		System.arraycopy(values, 0, evaluated, 0, values.length);
+		nChanged = 0;
+		deltaUpdates = 0;
+	}
+
+	/**
+	 * assembles and solves the equations for the current switch states or loads their solution from the {@link #store} if available.
+	 * @return the solution to cache
+	 */
+	private Solution solve() {
+		equations.clear();
+		for (int i = 0; i < count; i++) components[i].setEquations(equations, states);
+		if (store == null) return factorize();
+		long hash = equations.hash(), key = h == 0 ? topology : topology * 31 + Double.doubleToLongBits(stepKey());
+		Solution sol = store.get(key, switchStates, hash);
+		if (sol == null) {
+			store.put(key, switchStates, hash, sol = factorize());
+			return sol;
+		}
+		Solution base = sol.shared();
+		if (symbolic == null && base instanceof SparseLU) analyzed((SparseLU)base);
+		if (sol instanceof SparseLU && !denseSolve) {
+			//allow low rank updates and refactorizations based on it
+			factorization = (SparseLU)sol;
+			SparseMatrix mat = factorized;
+			factorized = equations;
+			equations = mat;
+		}
+		return denseCache && !(sol instanceof Solution.Dense) ? new Solution.Dense(sol, states, values.length) : sol;
+	}
+
+	/**
+	 * solves the assembled equations.<br>
+	 * If only few equations changed since the last factorization, its solution is updated by low rank corrections.
+	 * Otherwise it reuses the pivots of the previous factorization if possible or at least the elimination order of the symbolic analysis.
+	 * @return the solution to cache
+	 */
+	private Solution factorize() {
+		if (factorization != null) {
+			Solution sol = LowRankUpdate.of(factorization, factorized, equations, values);
+			if (sol != null) return denseCache ? new Solution.Dense(sol, states, values.length) : sol;
+		}
+		SparseLU lu = factorization == null ? null : factorization.refactor(equations);
+		if (lu == null && symbolic == null && template != null && template.symbolic != null && template.topology == topology) {
+			//the same layout has the same sparsity pattern, only the values differ
+			symbolic = template.symbolic;
+			denseCache = template.denseCache;
+			denseSolve = template.denseSolve;
+		}
+		if (denseSolve) return eliminate();
+		if (lu == null && symbolic != null) lu = SparseLU.factor(symbolic, equations);
+		else if (lu == null) {
+			analyzed(lu = SparseLU.analyze(equations, states));
+			if (denseSolve) return new Solution.Dense(lu, states, values.length);
+		}
+		factorization = lu;
+		SparseMatrix mat = factorized;
+		factorized = equations;
+		equations = mat;
+		return denseCache ? new Solution.Dense(lu, states, values.length) : lu;
+	}
+
+	/**
+	 * takes the elimination order and the way solutions are computed and cached from the first factorization of this layout
+	 * @param lu factorization computed or loaded for the current equations
+	 */
+	private void analyzed(SparseLU lu) {
+		symbolic = lu.symbolic();
+		//the explicit matrix costs states * parameters per tick, the substitution about as much as the factors have elements
+		denseCache = (long)states * values.length <= lu.nonZeros();
+		denseSolve = denseCache && lu.slowerThanDense(values.length);
+	}
+
+	/**
+	 * solves the assembled equations by dense gauss-jordan elimination
+	 * @return the explicit solution matrix
+	 */
+	private Solution eliminate() {
+		double[][] mat = equations.toArray();
+		MathUtil.solveMatrix(mat);
+		int n = values.length;
+		double[] m = new double[states * n];
+		for (int i = 0; i < states; i++)
+			System.arraycopy(mat[i], states, m, i * n, n);
+		return new Solution.Dense(states, n, m);
 	}
 
 	private Circuit mergeCircuit(Circuit circuit) {
 		if (circuit == this) return this;
-		if (circuit.components.size() > this.components.size()) {
-			for (Component c : components) c.circuit = circuit;
-			circuit.components.addAll(components);
-			circuit.topolIdx += topolIdx;
-			circuits.remove(this);
-			return circuit;
+		Events.TopologyEdit event = Events.recording() ? new Events.TopologyEdit() : null;
+		if (event != null) event.begin();
+		//the smaller one is merged into the bigger one
+		Circuit a = this, b = circuit;
+		if (b.count > a.count) {
+			a = circuit;
+			b = this;
 		}
-		for (Component c : circuit.components) c.circuit = this;
-		components.addAll(circuit.components);
-		topolIdx += circuit.topolIdx;
-		circuits.remove(circuit);
-		return this;
+		if (a.count + b.count > a.components.length)
+			a.components = Arrays.copyOf(a.components, Math.max(a.count + b.count, a.components.length * 2));
+		for (int i = 0; i < b.count; i++) {
+			Component c = b.components[i];
+			c.circuit = a;
+			a.components[c.index = a.count++] = c;
+		}
+		a.topolIdx += b.topolIdx;
+		if (!b.cuts.isEmpty()) {
+			for (Component c : b.cuts) a.cut(c);
+			b.cuts.clear();
+		}
+		needRescan.remove(b);
+		circuits.remove(b);
+		edit(event, "mergeCircuit", a, b, 0);
+		return a;
 	}
 
 	/**
-	 * checks all connections to detect if the circuit was split into multiple pieces
+	 * marks a component next to a removed connection, from which {@link #scan()} searches for pieces split off by it
+	 * @param c component that stayed in this circuit or null
+	 */
+	private void cut(Component c) {
+		if (c != null && c.circuit == this) {
+			cuts.add(c);
+			needRescan.add(this);
+		}
+	}
+
+	/**
+	 * detects if the circuit was split into multiple pieces by the connections removed since the last scan.<br>
+	 * Every piece contains one of the components next to a removed connection, so a search is started from each of them.
+	 * The searches run interleaved, one component at a time, and are joined when they reach each other.
+	 * Once only one group of joined searches can still grow, all others have fully explored their piece, which is then split off,
+	 * while the remaining one is the rest of the circuit. So the work is bounded by the size of the pieces split off, or by how far apart the cuts are if nothing splits,
+	 * instead of the size of the whole circuit.
 	 */
 	private void scan() {
-		if (components.isEmpty()) return;
-		HashSet<Component> scanned = new HashSet<Component>();
-		ArrayDeque<Pin> tocheck = new ArrayDeque<Pin>();
-		while (true) {
-			{
-				Component c = components.iterator().next();
-				Junction j;
-				if (c instanceof Junction) j = (Junction)c;
-				else if (c instanceof BiPole) j = ((BiPole)c).A.U;
-				else j = c.getPins()[0].U;
-				scanned.add(j);
-				for (Pin p : j.pins) tocheck.add(p);
+		int n = count, splits = 0, visited = 0;
+		if (marks.length < components.length) marks = new int[components.length];
+		if (markBase > Integer.MAX_VALUE - cuts.size()) {
+			Arrays.fill(marks, 0);
+			markBase = 0;
+		}
+		//searches, found components are marked with markBase + 1 + search
+		ArrayList<ArrayDeque<Component>> queues = new ArrayList<ArrayDeque<Component>>();
+		int[] group = new int[cuts.size()];
+		for (Component c : cuts)
+			if (contains(c) && marks[c.index] <= markBase) {
+				int i = queues.size();
+				group[i] = i;
+				marks[c.index] = markBase + 1 + i;
+				found.add(c);
+				ArrayDeque<Component> q = new ArrayDeque<Component>();
+				q.add(c);
+				queues.add(q);
 			}
-			while(!tocheck.isEmpty()) {
-				Pin p = tocheck.pop();
-				scanned.add(p.I);
-				if (p.I instanceof BiPole) {
-					p = p.link;
-					Junction j = p.U;
-					if (scanned.add(j))
-						for (Pin pin : j.pins)
-							if (pin != p)
-								tocheck.add(pin);
-				} else for (Pin p2 : p.I.getPins()) {
-					if (p2 == p) continue;
-					Junction j = p2.U;
-					if (scanned.add(j))
-						for (Pin pin : j.pins)
-							if (pin != p2)
-								tocheck.add(pin);
+		cuts.clear();
+		int k = queues.size(), groups = k, active = k;
+		if (k < 2) {//a single piece left
+			markBase += k;
+			found.clear();
+			return;
+		}
+		metrics.rescans.increment();
+		Events.Scan event = Events.recording() ? new Events.Scan() : null;
+		if (event != null) event.begin();
+		//groups that ran out of components to explore
+		boolean[] done = new boolean[k];
+		while (groups > 1 && active > 1)
+			for (int i = 0; i < k; i++) {
+				ArrayDeque<Component> q = queues.get(i);
+				Component c = q.poll();
+				if (c == null) continue;
+				visited++;
+				//junctions lead to the components of their pins, components to the junctions of theirs
+				boolean junction = c instanceof Junction;
+				for (int j = 0, m = c.pinCount(); j < m; j++) {
+					Pin p = c.pin(j);
+					Component next = junction ? p.I : p.U;
+					if (next != null) groups -= visit(next, i, group, queues);
+				}
+				//recount the groups still exploring
+				if (q.isEmpty()) {
+					active = 0;
+					Arrays.fill(done, true);
+					for (int j = 0; j < k; j++)
+						if (!queues.get(j).isEmpty()) done[root(group, j)] = false;
+					for (int j = 0; j < k; j++)
+						if (group[j] == j && !done[j]) active++;
 				}
+				if (groups <= 1 || active <= 1) break;
 			}
-			if (scanned.size() < components.size()) {
-				Circuit circuit = new Circuit();
-				for (Component c : scanned) {
-					removeComp(c);
-					circuit.addComp(c);
+		if (groups > 1) {
+			//split off all fully explored groups, but keep the biggest one if none is left exploring
+			//resolved before moving any, because that changes the indices
+			int[] size = new int[k], of = new int[found.size()];
+			for (int j = 0; j < of.length; j++) {
+				Component c = found.get(j);
+				size[of[j] = root(group, marks[c.index] - markBase - 1)]++;
+			}
+			int keep = -1;
+			for (int j = 0; j < k; j++)
+				if (group[j] == j && (keep < 0 || !done[j] || done[keep] && size[j] > size[keep])) keep = j;
+			//taken in order of discovery to keep the equation layout of split off pieces reproducible
+			Circuit[] pieces = new Circuit[k];
+			for (int j = 0; j < of.length; j++) {
+				int g = of[j];
+				if (g == keep) continue;
+				Component c = found.get(j);
+				Circuit circuit = pieces[g];
+				if (circuit == null) {
+					pieces[g] = circuit = new Circuit();
+					splits++;
 				}
-			} else return;
-			scanned.clear();
+				removeComp(c);
+				circuit.addComp(c);
+			}
+		}
+		markBase += k;
+		found.clear();
+		if (event != null && event.shouldCommit()) {
+			event.circuit = id;
+			event.components = n;
+			event.visited = visited;
+			event.splits = splits;
+			event.commit();
+		}
+	}
+
+	/**
+	 * adds a component found by search i to it, or joins the searches if another one already found it
+	 * @return 1 if two groups of searches were joined, otherwise 0
+	 */
+	private int visit(Component c, int i, int[] group, ArrayList<ArrayDeque<Component>> queues) {
+		if (!contains(c)) return 0;
+		int j = marks[c.index] - markBase - 1;
+		if (j < 0) {
+			marks[c.index] = markBase + 1 + i;
+			found.add(c);
+			queues.get(i).add(c);
+			return 0;
 		}
+		int a = root(group, i), b = root(group, j);
+		if (a == b) return 0;
+		group[b] = a;
+		return 1;
+	}
+
+	private static int root(int[] group, int i) {
+		while (group[i] != i) i = group[i] = group[group[i]];
+		return i;
 	}
 
 	public IllegalStateException test() {
 		String log = "";
 		BitSet ids = new BitSet();
 		int tidx = 0;
-		for (Component c : components) {
+		for (int i = 0; i < count; i++) {
+			Component c = components[i];
+			if (c.index != i || c.circuit != this) log += String.format("ERROR component not indexed:\n %s\n", c);
 			if (c instanceof Junction) {
 				Junction j = (Junction)c;
 				tidx += j.pins.length - 2;
@@ -247,7 +829,7 @@ public class Circuit {
 				ids.set(j.id);
 				for (Pin p : j.pins) {
 					if (p.U != j || p.Id_U != j.id) log += String.format("ERROR Pin incorrectly connected:\n %s\n %s\n", j, p);
-					if (!components.contains(p.I)) log += String.format("ERROR connected component not in circuit:\n %s\n", p.I);
+					if (!contains(p.I)) log += String.format("ERROR connected component not in circuit:\n %s\n", p.I);
 				}
 			} else if (c instanceof BiPole) {
 				BiPole b = (BiPole)c;
@@ -256,11 +838,11 @@ public class Circuit {
 				if (b.A.link != b.B || b.B.link != b.A) log += String.format("ERROR Pins not paired:\n %s\n %s\n", b.A, b.B);
 				if (b.A.I != b || b.A.id_I != b.id) log += String.format("ERROR Pin not linked to component:\n %s\n %s\n", b, b.A);
 				if (b.B.I != b || b.B.id_I != b.id) log += String.format("ERROR Pin not linked to component:\n %s\n %s\n", b, b.B);
-				if (!components.contains(b.A.U)) log += String.format("ERROR connected junction not in circuit:\n %s\n %s\n", b.A, b.A.U);
-				if (!components.contains(b.B.U)) log += String.format("ERROR connected junction not in circuit:\n %s\n %s\n", b.B, b.B.U);
+				if (!contains(b.A.U)) log += String.format("ERROR connected junction not in circuit:\n %s\n %s\n", b.A, b.A.U);
+				if (!contains(b.B.U)) log += String.format("ERROR connected junction not in circuit:\n %s\n %s\n", b.B, b.B.U);
 			} else System.err.printf("ERROR unknown component: %s\n", c);
 		}
-		if (ids.cardinality() != components.size()) log += "ERROR missing ids\n";
+		if (ids.cardinality() != count) log += "ERROR missing ids\n";
 		if (tidx != topolIdx) log += String.format("ERROR topologic index is %d but should be %d\n", topolIdx, tidx);
 		return log.isEmpty() ? null : new IllegalStateException("Something with the connection system gone wrong:\n" + log);
 	}
@@ -277,14 +859,254 @@ public class Circuit {
 
 	/**All circuit instances to be simulated */
 	public static Collection<Circuit> circuits = new ArrayList<Circuit>();
+	private static int nextId;
 	private static Set<Circuit> needRescan = new HashSet<Circuit>();
+	/**optional persistent storage of solved equation systems shared by all circuits */
+	public static SolutionStore store;
+	/**thread pool to tick independent circuits in parallel, or null to tick them one after another. Ticks only compute and never block, so work stealing suits them better than many threads */
+	public static ForkJoinPool pool;
+	/**minimum amount of components to simulate per parallel task */
+	public static int batchSize = 256;
+	/**whether to advance reactive components by their exact discretization between switch changes instead of updating them each tick (only for {@link Integration#EXPLICIT}) */
+	public static boolean exact = true;
+	/**whether to update the listeners of each {@link IGroupable} class together in one {@link Group} in circuits set up from now on, restored by {@link #reset()} */
+	public static boolean grouped = true;
+	/**integration of capacitors and inductors in circuits set up from now on, set by the plan and restored to explicit by {@link #reset()} */
+	public static Integration integration = Integration.EXPLICIT;
 
-	public static void simulate(double dt) {
+	/**
+	 * How capacitors and inductors are advanced each tick
+	 */
+	public enum Integration {
+		/**they act as sources updated from the solved current or voltage after each tick, or are advanced exactly between switch changes */
+		EXPLICIT,
+		/**backward Euler companion models: their conductance for the tick length is part of the equations, stable for any tick length but damping oscillations */
+		EULER,
+		/**trapezoidal companion models, second order accurate and not damping. Ticks with switch changes use backward Euler, so the jumps don't ring */
+		TRAPEZOIDAL
+	}
+
+	/**
+	 * removes all circuits and restores the plan settings, so that another plan can be loaded and simulated separately
+	 */
+	public static void reset() {
+		circuits.clear();
+		needRescan.clear();
+		Metrics.publish(circuits);
+		integration = Integration.EXPLICIT;
+		grouped = true;
+	}
+
+	/**
+	 * splits the circuits marked by edits before a tick, after which the set of circuits is fixed for it
+	 */
+	private static void rescan() {
 		if (!needRescan.isEmpty()) {
 			for (Circuit c : needRescan) c.scan();
 			needRescan.clear();
 		}
-		for(Circuit c : circuits) c.update(dt);
+		Metrics.publish(circuits);
+	}
+
+	/**
+	 * simulates one tick of adaptive length for the {@link Stepper}.<br>
+	 * Switch states are decided at its start, so if any changed the tick is shortened to resolve the transition, before any state is updated.
+	 * @param dt [s] proposed time interval
+	 * @param minStep [s] time interval to use if switches changed
+	 * @return [s] the time interval actually simulated
+	 */
+	static double step(double dt, double minStep) {
+		rescan();
+		boolean[] active = new boolean[circuits.size()];
+		boolean switched = false;
+		int i = 0;
+		for (Circuit c : circuits) {
+			if (active[i++] = c.beginTick(dt)) {
+				c.updateData();
+				for (INotify n : c.preNotifier) n.update(c.result, dt);
+				switched |= c.updateMatrix;
+			}
+		}
+		if (switched) dt = Math.min(dt, minStep);
+		i = 0;
+		for (Circuit c : circuits)
+			if (active[i++] && c.resumeTick(dt)) {
+				c.updateData();
+				for (INotify n : c.notifier) n.update(c.result, dt);
+				c.endTick(dt);
+			}
+		return dt;
+	}
+
+	public static void simulate(double dt) {
+		simulate(dt, 1);
+	}
+
+	/**
+	 * simulates multiple ticks of all circuits, each circuit runs through all of them on its own
+	 * @param dt [s] time interval of each tick
+	 * @param ticks amount of ticks
+	 */
+	public static void simulate(double dt, int ticks) {
+		rescan();
+		if (pool == null || circuits.size() < 2) {
+			for(Circuit c : circuits) c.update(dt, ticks);
+			return;
+		}
+		//pack circuits into batches of similar work, returns when all are done
+		int total = 0;
+		for (Circuit c : circuits) total += c.count;
+		int target = Math.max(batchSize, total / (pool.getParallelism() * 4));
+		ArrayList<Tick> tasks = new ArrayList<Tick>();
+		Circuit[] batch = new Circuit[circuits.size()];
+		int n = 0, work = 0;
+		for (Circuit c : circuits) {
+			batch[n++] = c;
+			if ((work += c.count) >= target) {
+				tasks.add(new Tick(Arrays.copyOf(batch, n), dt, ticks));
+				n = work = 0;
+			}
+		}
+		if (n > 0) tasks.add(new Tick(Arrays.copyOf(batch, n), dt, ticks));
+		if (tasks.size() == 1) tasks.get(0).compute();
+		else pool.invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+	}
+
+	private static class Tick extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final Circuit[] batch;
+		final double dt;
+		final int ticks;
+
+		Tick(Circuit[] batch, double dt, int ticks) {
+			this.batch = batch;
+			this.dt = dt;
+			this.ticks = ticks;
+		}
+
+		@Override
+		protected void compute() {
+			for (Circuit c : batch) c.update(dt, ticks);
+		}
+	}
+
+	/**
+	 * Instances of the same circuit ticked together, like from multiple loads of the same plan.<br>
+	 * The instances should {@link Circuit#share(Circuit)} their cache, so that instances in the same switch state use the same solution and are evaluated in one batch.
+	 */
+	public static class Batch {
+		/**minimum memory size of solutions to evaluate in batches, smaller ones stay in the L1 cache anyway and are cheaper to evaluate one by one */
+		static final long BatchMemory = 1 << 15;
+
+		final Circuit[] circuits, active, pending, group;
+		final double[][] values, result;
+		/**open addressing table grouping the pending circuits by their solution: a chain of indices linked by next starts at heads */
+		final Solution[] keys;
+		final int[] heads, next;
+
+		/**
+		 * @param circuits the instances
+		 */
+		public Batch(Circuit... circuits) {
+			int n = circuits.length;
+			this.circuits = circuits;
+			this.active = new Circuit[n];
+			this.pending = new Circuit[n];
+			this.group = new Circuit[n];
+			this.values = new double[n][];
+			this.result = new double[n][];
+			int size = Integer.highestOneBit(Math.max(n, 1)) * 4;
+			this.keys = new Solution[size];
+			this.heads = new int[size];
+			this.next = new int[n];
+		}
+
+		/**
+		 * simulates one tick of all instances
+		 * @param dt [s] time interval passed
+		 */
+		public void update(double dt) {
+			int n = 0;
+			for (Circuit c : circuits)
+				if (c.beginTick(dt)) active[n++] = c;
+			evaluate(n);
+			for (int i = 0; i < n; i++) {
+				Circuit c = active[i];
+				for (INotify no : c.preNotifier) no.update(c.result, dt);
+			}
+			int m = 0;
+			for (int i = 0; i < n; i++)
+				if (active[i].resumeTick(dt)) active[m++] = active[i];
+			evaluate(m);
+			for (int i = 0; i < m; i++) {
+				Circuit c = active[i];
+				for (INotify no : c.notifier) no.update(c.result, dt);
+				c.endTick(dt);
+			}
+		}
+
+		/**
+		 * updates the results of the first n active circuits, evaluating the ones sharing the same large solution together
+		 */
+		private void evaluate(int n) {
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				Circuit c = active[i];
+				if (!c.prepare()) continue;
+				if (c.matrix.memory() >= BatchMemory) pending[m++] = c;
+				else c.evaluate();
+			}
+			if (m == 1) pending[0].evaluate();
+			if (m <= 1) return;
+			int mask = keys.length - 1;
+			for (int i = 0; i < m; i++) {
+				Solution sol = pending[i].matrix;
+				int h = System.identityHashCode(sol) & mask;
+				while (keys[h] != null && keys[h] != sol) h = h + 1 & mask;
+				if (keys[h] == null) {
+					keys[h] = sol;
+					heads[h] = -1;
+				}
+				next[i] = heads[h];
+				heads[h] = i;
+			}
+			for (int h = 0; h <= mask; h++) {
+				Solution sol = keys[h];
+				if (sol == null) continue;
+				keys[h] = null;
+				int k = 0;
+				for (int i = heads[h]; i >= 0; i = next[i]) {
+					Circuit c = group[k] = pending[i];
+					values[k] = c.values;
+					result[k++] = c.result;
+				}
+				long t = System.nanoTime();
+				sol.solve(values, result, k);
+				//each instance is accounted its share of the batch
+				t = (System.nanoTime() - t) / k;
+				for (int i = 0; i < k; i++) {
+					Circuit c = group[i];
+					c.evaluated();
+					if (c.evalStart != Long.MIN_VALUE) c.metrics.evalTime.record(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Registers a circuit of already connected components, like from a compiled netlist, instead of building it up pin by pin via {@link #connectPins(Pin...)}.
+	 * @param comps all components including the junctions connecting their pins, in the order of their equations
+	 * @return the new circuit
+	 */
+	public static Circuit assemble(Component... comps) {
+		Circuit circuit = new Circuit();
+		for (Component c : comps) circuit.addComp(c);
+		return circuit;
 	}
 
 	/**
@@ -293,13 +1115,17 @@ public class Circuit {
 	 * @param pins the pins to connect
 	 */
 	public static void connectPins(Pin... pins) {
+		Events.TopologyEdit event = Events.recording() ? new Events.TopologyEdit() : null;
+		if (event != null) event.begin();
 		if (pins.length == 2) {
 			Pin A = pins[0], B = pins[1];
 			if (A.I instanceof Resistor && B.I instanceof IResistorMergable) {
 				mergeResistor((IResistorMergable)B.I, B, (Resistor)A.I, A);
+				edit(event, "connectPins", B.I.circuit, null, 2);
 				return;
 			} else if (A.I instanceof IResistorMergable && B.I instanceof Resistor) {
 				mergeResistor((IResistorMergable)A.I, A, (Resistor)B.I, B);
+				edit(event, "connectPins", A.I.circuit, null, 2);
 				return;
 			}
 		}
@@ -311,6 +1137,7 @@ public class Circuit {
 		if (circuit == null) circuit = new Circuit();
 		for (Pin p : pins) circuit.addComp(p.I);
 		circuit.addComp(new Junction(pins));
+		edit(event, "connectPins", circuit, null, pins.length);
 	}
 
 	/**
@@ -320,17 +1147,26 @@ public class Circuit {
 	 * @param pins new pins to connect instead
 	 */
 	public static void reconnectPins(Junction j, Pin... pins) {
+		Events.TopologyEdit event = Events.recording() ? new Events.TopologyEdit() : null;
+		if (event != null) event.begin();
 		Circuit circuit = j.circuit;
 		circuit.removeComp(j);
 		if (pins.length > 0) connectPins(pins);
-		boolean rescan = false;
 		for (Pin p : j.pins)
 			if (p.U == j) {
 				p.U = null;
-				rescan |= p.I.circuit == circuit;
+				//connecting the new pins may have merged the circuit into another
+				if (p.I.circuit != null) {
+					p.I.circuit.cut(p.I);
+					//the new pins are connected with each other, but maybe not with the dropped ones anymore
+					if (pins.length > 0) p.I.circuit.cut(pins[0].I);
+				}
 			}
-		if (circuit.components.isEmpty()) circuits.remove(circuit);
-		else if (rescan) needRescan.add(circuit);
+		if (circuit.count == 0) {
+			circuits.remove(circuit);
+			needRescan.remove(circuit);
+		}
+		edit(event, "reconnectPins", circuit, null, pins.length);
 	}
 
 	/**
@@ -341,6 +1177,8 @@ public class Circuit {
 	 * @throws ArrayIndexOutOfBoundsException if addPins.length < 2
 	 */
 	public static void insertJunction(CombinedPin pin, int idx, Pin... addPins) { 
+		Events.TopologyEdit event = Events.recording() ? new Events.TopologyEdit() : null;
+		if (event != null) event.begin();
 		Component c = pin.I;
 		Circuit circuit = c.circuit;
 		if (idx == 0) {
@@ -379,6 +1217,7 @@ public class Circuit {
 			addPins[1] = p2;
 		}
 		connectPins(addPins);
+		edit(event, "insertJunction", circuit, null, addPins.length);
 	}
 
 	/**
@@ -387,7 +1226,11 @@ public class Circuit {
 	 * @param c
 	 */
 	public static void removeComponent(Component c) {
+		Events.TopologyEdit event = Events.recording() ? new Events.TopologyEdit() : null;
+		if (event != null) event.begin();
 		Circuit circuit = c.circuit;
+		//components next to the removed one, which may end up in different pieces
+		ArrayList<Component> cuts = new ArrayList<Component>();
 		if (c instanceof IResistorMergable) {
 			for (Pin p : c.getPins())
 				if (p instanceof CombinedPin) {
@@ -400,8 +1243,10 @@ public class Circuit {
 						r.swapPin(pin);
 						r.updateResistor();
 						circuit.addComp(r);
+						cuts.add(r);
 					} else {
 						circuit = pin.I.circuit;
+						cuts.add(pin.I);
 						int i = pin.content.size() - 1;
 						Resistor r = pin.content.remove(i);
 						pin.R -= r.R;
@@ -416,6 +1261,7 @@ public class Circuit {
 						p2.U = pin.U;
 						circuit.addComp(new Junction(pin));
 						circuit.addComp(r);
+						cuts.add(r);
 						p2 = p2.link;
 						for (--i; i >= 0; i--) {
 							Resistor r2 = pin.content.remove(i);
@@ -430,12 +1276,35 @@ public class Circuit {
 					}
 				} else if (p != null && p.U.pins.length == 1)
 					circuit.removeComp(p.U);
-		}
+				else if (p != null) cuts.add(p.U);
+		} else
+			for (Pin p : c.getPins())
+				if (p != null) cuts.add(p.U);
 		if (circuit != null) {
 			c.circuit.removeComp(c);
-			if (circuit.components.isEmpty()) circuits.remove(circuit);
-			else needRescan.add(circuit);
+			if (circuit.count == 0) {
+				circuits.remove(circuit);
+				needRescan.remove(circuit);
+			} else for (Component n : cuts) circuit.cut(n);
 		}
+		edit(event, "removeComponent", circuit, null, 0);
+	}
+
+	/**
+	 * commits the given topology edit event if enabled (null if not recording)
+	 * @param op name of the edit operation
+	 * @param circuit the edited circuit
+	 * @param other the circuit merged into it or null
+	 * @param pins amount of pins involved
+	 */
+	private static void edit(Events.TopologyEdit event, String op, Circuit circuit, Circuit other, int pins) {
+		if (event == null || !event.shouldCommit()) return;
+		event.operation = op;
+		event.circuit = circuit == null ? -1 : circuit.id;
+		event.other = other == null ? -1 : other.id;
+		event.components = circuit == null ? 0 : circuit.count;
+		event.pins = pins;
+		event.commit();
 	}
 
 	/**
@@ -27,7 +27,7 @@ public class CombinedPin extends Pin {
 	 * Creates an empty CombinedPin to replace the given master pin
 	 * @param master pin of the {@link IResistorMergable} master component
 	 */
-	CombinedPin(Pin master) {
+	public CombinedPin(Pin master) {
 		super(master.link);
 	}
 
@@ -10,13 +10,16 @@ public abstract class Component {
 	public Circuit circuit;
 	/**The first equation id of this component.<br><b>variable will be set by circuit, do not modify! */
 	public int id;
+	/**position in the circuit's component array, set by circuit */
+	int index;
 	
 	/**
-	 * makes this Component add its equations to the given matrix. Each equation is defined in its own sub array row of index {@code id, id + 1, ...}, where elements at {@code 0 <= index < states} refer to state variables and {@code index >= states} refer to fixed parameters.
-	 * @param mat matrix representing the linear equation system
+	 * makes this Component add its equations to the given matrix. Each equation is defined in its own row of index {@code id, id + 1, ...}, where elements at column {@code 0 <= index < states} refer to state variables and {@code index >= states} refer to fixed parameters.<br>
+	 * The set of elements written may depend on switch states but should stay as small as possible.
+	 * @param mat sparse matrix representing the linear equation system
 	 * @param states first index of parameter columns
 	 */
-	public abstract void setEquations(double[][] mat, int states);
+	public abstract void setEquations(SparseMatrix mat, int states);
 
 	/**
 	 * Initializes this component on the given circuit.<br>At this point the variables {@code circuit} and {@code id} are already set.
@@ -30,6 +33,22 @@ public abstract class Component {
 	 */
 	public abstract Pin[] getPins();
 
+	/**
+	 * @return amount of {@link #getPins() pins}
+	 */
+	public int pinCount() {
+		return getPins().length;
+	}
+
+	/**
+	 * Like {@code getPins()[i]} but shouldn't allocate, for traversing large circuits.
+	 * @param i pin index
+	 * @return the pin
+	 */
+	public Pin pin(int i) {
+		return getPins()[i];
+	}
+
 	/**
 	 * Set the partner of the given pin to the new pin linked to it
 	 * @param p Partner of the pin that changed
@@ -0,0 +1,55 @@
+package electricity;
+
+import java.util.List;
+
+/**
+ * Multiple instances of the same circuits simulated together, for statistics over random behavior like from {@link electricity.components.WorkResistor}.<br>
+ * Corresponding circuits of all instances share one solution cache and are ticked together as {@link Circuit.Batch},
+ * so instances that are in the same switch state are evaluated by one matrix-matrix product.
+ */
+public class Ensemble {
+
+	/**the circuits of all instances, grouped by their position within the instance */
+	private final Circuit.Batch[] groups;
+	private final int instances;
+
+	/**
+	 * @param instances the circuits of each instance, in the same order for all instances
+	 * @throws IllegalArgumentException if the instances have different amounts of circuits
+	 */
+	public Ensemble(List<? extends List<Circuit>> instances) {
+		this.instances = instances.size();
+		int n = instances.isEmpty() ? 0 : instances.get(0).size();
+		groups = new Circuit.Batch[n];
+		for (List<Circuit> list : instances)
+			if (list.size() != n) throw new IllegalArgumentException("instances have different amounts of circuits");
+		for (int i = 0; i < n; i++) {
+			Circuit[] group = new Circuit[this.instances];
+			for (int j = 0; j < group.length; j++) {
+				group[j] = instances.get(j).get(i);
+				if (j > 0) group[j].share(group[0]);
+			}
+			groups[i] = new Circuit.Batch(group);
+		}
+	}
+
+	public int instances() {return instances;}
+
+	/**
+	 * @return the circuits of the first instance, which also represent the shared caches
+	 */
+	public Circuit[] first() {
+		Circuit[] c = new Circuit[groups.length];
+		for (int i = 0; i < c.length; i++) c[i] = groups[i].circuits[0];
+		return c;
+	}
+
+	/**
+	 * simulates one tick of all instances
+	 * @param dt [s] time interval passed
+	 */
+	public void simulate(double dt) {
+		for (Circuit.Batch group : groups) group.update(dt);
+	}
+
+}
@@ -0,0 +1,80 @@
+package electricity;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the simulation engine, to find out which topology edits trigger expensive setups and factorizations.<br>
+ * Events are only filled in if {@link Event#shouldCommit()}, so disabled ones cost next to nothing.
+ */
+public class Events {
+
+	static final String Category = "Circuit Simulator";
+
+	/**
+	 * Loading the first event class initializes the flight recorder infrastructure, which takes a few hundred ms.
+	 * So events are only created once the flight recorder was started.
+	 * @return whether events should be created
+	 */
+	static boolean recording() {
+		return FlightRecorder.isInitialized();
+	}
+
+	@Name("electricity.Setup")
+	@Label("Circuit Setup")
+	@Description("Equation layout of a circuit rebuilt after its topology changed")
+	@Category(Category)
+	@StackTrace(false)
+	static class Setup extends Event {
+		@Label("Circuit") int circuit;
+		@Label("Components") int components;
+		@Label("Nodes") int nodes;
+		@Label("Parameters") int parameters;
+		@Label("Switches") int switches;
+	}
+
+	@Name("electricity.CacheMiss")
+	@Label("Matrix Cache Miss")
+	@Description("Equation system solved because the solution for the current switch states was not cached")
+	@Category(Category)
+	@StackTrace(false)
+	static class CacheMiss extends Event {
+		@Label("Circuit") int circuit;
+		@Label("Rows") int rows;
+		@Label("Columns") int columns;
+		@Label("Switches") int switches;
+		@Label("Solution") String solution;
+		@Label("Solution Memory") @DataAmount long memory;
+	}
+
+	@Name("electricity.Scan")
+	@Label("Circuit Scan")
+	@Description("Connectivity check after components were removed, possibly splitting the circuit")
+	@Category(Category)
+	@StackTrace(false)
+	static class Scan extends Event {
+		@Label("Circuit") int circuit;
+		@Label("Components") int components;
+		@Label("Visited") @Description("Amount of components explored to find the pieces") int visited;
+		@Label("Splits") @Description("Amount of new circuits split off") int splits;
+	}
+
+	@Name("electricity.TopologyEdit")
+	@Label("Topology Edit")
+	@Description("Connections changed, which requires a setup of the affected circuits on their next tick")
+	@Category(Category)
+	static class TopologyEdit extends Event {
+		@Label("Operation") String operation;
+		@Label("Circuit") int circuit;
+		@Label("Other Circuit") @Description("Circuit merged into the first one or -1") int other;
+		@Label("Components") int components;
+		@Label("Pins") int pins;
+	}
+
+}
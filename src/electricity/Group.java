@@ -0,0 +1,23 @@
+package electricity;
+
+/**
+ * Listeners of one class updated together: instead of a virtual call on each listener, one loop runs over the state of all members, which the group keeps in arrays.<br>
+ * The circuit forms the groups at the end of each setup from the {@link IGroupable} listeners, and each group takes the place of its first member in the listener list.
+ * Members keep their state in the group until they are initialized again, so their own accessors must read it from there while grouped.
+ * The loops gain from monomorphic code, not from SIMD: members read the state vector and write parameters by index, and only changed parameters are recorded.
+ */
+public abstract class Group implements INotify {
+
+	/**amount of members */
+	protected int size;
+
+	/**
+	 * adds a member, which should be of the class that created this group
+	 * @param member the listener to update from now on
+	 */
+	protected abstract void add(IGroupable member);
+
+	/**@return amount of members */
+	public int size() {return size;}
+
+}
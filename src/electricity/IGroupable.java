@@ -0,0 +1,13 @@
+package electricity;
+
+/**
+ * Implemented by listeners that can be updated together with all others of their class in the same circuit by a {@link Group}.
+ * Listeners that don't implement this are updated on their own through {@link INotify}.
+ */
+public interface IGroupable extends INotify {
+	/**
+	 * called during setup for the first listener of each class
+	 * @return a new empty group for listeners of this class, or null if they should be updated on their own
+	 */
+	public Group newGroup();
+}
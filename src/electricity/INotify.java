@@ -13,4 +13,11 @@ public interface INotify {
 	 * @param dt [s] time interval passed
 	 */
 	public void update(double[] states, double dt);
+	/**
+	 * @return indices of the state variables {@link #update} reads, or null if it may read anything.
+	 * Circuits whose listeners all declare them only compute these while advanced by a {@link Propagator}.
+	 */
+	public default int[] reads() {
+		return null;
+	}
 }
@@ -0,0 +1,24 @@
+package electricity;
+
+/**
+ * Implemented by components that store energy in a parameter, like capacitors and inductors.<br>
+ * The parameter changes with a rate that is linear in the state variables, so between switch changes a circuit consisting of these
+ * can be advanced exactly over whole ticks by a {@link Propagator} instead of calling {@link #update} each tick.
+ */
+public interface IReactive extends INotify {
+	/**
+	 * @return index of the parameter holding the state of this component
+	 */
+	public int state();
+	/**
+	 * @param states values of the state variables
+	 * @return rate of change of the state per second, must be linear in the given state variables
+	 */
+	public double rate(double[] states);
+	/**
+	 * sets the state after it was advanced by a {@link Propagator} (the parameter itself is set by the circuit)
+	 * @param x new state
+	 * @param dx change of the state over one tick at its current rate, for updates that keep their own state half a tick behind
+	 */
+	public void setState(double x, double dx);
+}
@@ -0,0 +1,13 @@
+package electricity;
+
+/**
+ * Implemented by parts or electric components that change something at certain points in time rather than every tick, like randomly switching consumers.<br>
+ * They are put into the circuit's {@link Scheduler} via {@link Circuit#schedule} and only cost anything on the ticks they are due.
+ */
+public interface IScheduled {
+	/**
+	 * called at the end of the tick during which the scheduled time was reached, after all {@link Circuit#notifier}.
+	 * @param time [s] the scheduled time
+	 */
+	public void trigger(double time);
+}
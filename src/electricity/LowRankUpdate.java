@@ -0,0 +1,255 @@
+package electricity;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Solution of an equation system that only differs in a few rows from an already factorized one, like after a single Diode or Transistor switched.<br>
+ * Uses the Sherman-Morrison-Woodbury formula {@code (A + E*D)^-1 = A^-1 - W * (I + D*W)^-1 * D*A^-1} with {@code W = A^-1 * E},
+ * where E selects the changed rows and D contains their difference, so only one substitution per changed row is needed instead of a new factorization.
+ */
+public class LowRankUpdate extends Solution {
+
+	/**maximum amount of changed rows to handle by an update */
+	static final int MaxRank = 8;
+	/**tolerated relative residual of the updated solution */
+	static final double Tolerance = 1e-9;
+	/**bookkeeping cost of a factorization per element of its result, relative to a substitution */
+	static final int FactorOverhead = 8;
+	/**per thread space for the solution of the capacitance system, so updates shared by several circuits can be evaluated in parallel */
+	private static final ThreadLocal<double[]> scratch = ThreadLocal.withInitial(() -> new double[MaxRank]);
+
+	public final SparseLU base;
+	/**changed rows */
+	final int[] rows;
+	/**columns of {@code W = A^-1 * E} */
+	final double[][] W;
+	/**row differences of the state columns (D) and parameter columns */
+	final int[][] dc, bc;
+	final double[][] dv, bv;
+	/**LU decomposition (rows permuted) of the capacitance matrix {@code I + D*W} */
+	final double[][] C;
+
+	private LowRankUpdate(SparseLU base, int[] rows, int k) {
+		this.base = base;
+		this.rows = rows;
+		this.W = new double[k][base.n];
+		this.dc = new int[k][];
+		this.dv = new double[k][];
+		this.bc = new int[k][];
+		this.bv = new double[k][];
+		this.C = new double[k][k];
+	}
+
+	/**
+	 * The base solution is computed and corrected in the result directly.
+	 */
+	@Override
+	public void solve(double[] values, double[] result) {
+		final int k = rows.length;
+		final double[] z = result;
+		double[] t = scratch.get();
+		if (t.length < k) scratch.set(t = new double[k]);
+		base.solve(values, z);
+		for (int i = 0; i < k; i++) {
+			int[] c = bc[i];
+			double[] v = bv[i];
+			double x = 0;
+			for (int j = 0; j < c.length; j++)
+				x += v[j] * values[c[j]];
+			if (x != 0) {
+				double[] w = W[i];
+				for (int j = 0; j < z.length; j++)
+					z[j] += w[j] * x;
+			}
+		}
+		for (int i = 0; i < k; i++) {
+			int[] c = dc[i];
+			double[] v = dv[i];
+			double x = 0;
+			for (int j = 0; j < c.length; j++)
+				x += v[j] * z[c[j]];
+			for (int j = 0; j < i; j++)
+				x -= C[i][j] * t[j];
+			t[i] = x;
+		}
+		for (int i = k - 1; i >= 0; i--) {
+			double x = t[i];
+			for (int j = i + 1; j < k; j++)
+				x -= C[i][j] * t[j];
+			t[i] = x /= C[i][i];
+		}
+		for (int i = 0; i < k; i++) {
+			double x = t[i];
+			if (x == 0) continue;
+			double[] w = W[i];
+			for (int j = 0; j < result.length; j++)
+				result[j] -= w[j] * x;
+		}
+	}
+
+	/**
+	 * excludes the base factorization, which is usually shared with other updates
+	 */
+	@Override
+	public long memory() {
+		long m = 64 + 4L * rows.length;
+		for (int i = 0; i < rows.length; i++)
+			m += 8L * (W[i].length + C[i].length) + 12L * (dc[i].length + bc[i].length) + 64;
+		return m;
+	}
+
+	@Override
+	public Solution shared() {
+		return base;
+	}
+
+	/**
+	 * Creates a low rank update of the given factorization for the new equations if that is cheaper than factorizing them and numerically safe.
+	 * @param base factorization of the old equations
+	 * @param old the equations base was computed from
+	 * @param mat the new equations (must have the same layout)
+	 * @param values current parameter values used to verify the result
+	 * @return the updated solution or null if a new factorization is required
+	 */
+	public static LowRankUpdate of(SparseLU base, SparseMatrix old, SparseMatrix mat, double[] values) {
+		final int n = base.n;
+		int[] rows = new int[MaxRank];
+		int k = 0;
+		for (int i = 0; i < n; i++)
+			if (!equalRows(old, mat, i))
+				if (k == MaxRank) return null;
+				else rows[k++] = i;
+		//each changed row and the verification cost a substitution, versus the factorization's arithmetic and bookkeeping
+		if (k == 0 || (long)(k + 2) * base.nonZeros() >= base.ops + FactorOverhead * base.nonZeros()) return null;
+		LowRankUpdate upd = new LowRankUpdate(base, Arrays.copyOf(rows, k), k);
+		double[] e = new double[n];
+		for (int i = 0; i < k; i++) {
+			int r = rows[i];
+			e[r] = 1;
+			base.solveRhs(e, upd.W[i]);
+			e[r] = 0;
+			upd.difference(old, mat, i, r, n);
+		}
+		//capacitance matrix
+		final double[][] C = upd.C;
+		for (int i = 0; i < k; i++) {
+			int[] c = upd.dc[i];
+			double[] v = upd.dv[i];
+			for (int j = 0; j < k; j++) {
+				double[] w = upd.W[j];
+				double x = i == j ? 1 : 0;
+				for (int l = 0; l < c.length; l++)
+					x += v[l] * w[c[l]];
+				C[i][j] = x;
+			}
+		}
+		//factorize with partial pivoting, the permutation is applied to D's rows
+		for (int i = 0; i < k; i++) {
+			int p = i;
+			for (int j = i + 1; j < k; j++)
+				if (Math.abs(C[j][i]) > Math.abs(C[p][i])) p = j;
+			if (C[p][i] == 0) return null;
+			if (p != i) upd.swap(i, p);
+			double[] row = C[i];
+			for (int j = i + 1; j < k; j++) {
+				double[] row2 = C[j];
+				double x = row2[i] /= row[i];
+				for (int l = i + 1; l < k; l++)
+					row2[l] -= x * row[l];
+			}
+		}
+		//verify result with the current values and with all parameters set
+		double[] x = new double[n], p = new double[values.length];
+		upd.solve(values, x);
+		if (!mat.solvedBy(x, values, n, Tolerance)) return null;
+		Arrays.fill(p, 1);
+		upd.solve(p, x);
+		if (!mat.solvedBy(x, p, n, Tolerance)) return null;
+		return upd;
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		SolutionStore.writeInts(out, rows);
+		for (int i = 0; i < rows.length; i++) {
+			SolutionStore.writeDoubles(out, W[i]);
+			SolutionStore.writeInts(out, dc[i]);
+			SolutionStore.writeDoubles(out, dv[i]);
+			SolutionStore.writeInts(out, bc[i]);
+			SolutionStore.writeDoubles(out, bv[i]);
+			SolutionStore.writeDoubles(out, C[i]);
+		}
+	}
+
+	static LowRankUpdate read(ByteBuffer b, SparseLU base) {
+		int[] rows = SolutionStore.readInts(b);
+		LowRankUpdate upd = new LowRankUpdate(base, rows, rows.length);
+		for (int i = 0; i < rows.length; i++) {
+			upd.W[i] = SolutionStore.readDoubles(b);
+			upd.dc[i] = SolutionStore.readInts(b);
+			upd.dv[i] = SolutionStore.readDoubles(b);
+			upd.bc[i] = SolutionStore.readInts(b);
+			upd.bv[i] = SolutionStore.readDoubles(b);
+			upd.C[i] = SolutionStore.readDoubles(b);
+		}
+		return upd;
+	}
+
+	private void swap(int i, int j) {
+		double[] r = C[i]; C[i] = C[j]; C[j] = r;
+		int[] c = dc[i]; dc[i] = dc[j]; dc[j] = c;
+		double[] v = dv[i]; dv[i] = dv[j]; dv[j] = v;
+	}
+
+	/**
+	 * stores the difference of row r between old and mat as i-th update row
+	 */
+	private void difference(SparseMatrix old, SparseMatrix mat, int i, int r, int n) {
+		int[] oc = old.idx[r], nc = mat.idx[r];
+		int ol = old.len[r], nl = mat.len[r], m = 0;
+		int[] cols = new int[ol + nl];
+		double[] vals = new double[ol + nl];
+		for (int j = 0; j < nl; j++) {
+			cols[m] = nc[j];
+			vals[m++] = mat.val[r][j];
+		}
+		outer: for (int j = 0; j < ol; j++) {
+			int c = oc[j];
+			for (int l = 0; l < nl; l++)
+				if (cols[l] == c) {
+					vals[l] -= old.val[r][j];
+					continue outer;
+				}
+			cols[m] = c;
+			vals[m++] = -old.val[r][j];
+		}
+		int ns = 0;
+		for (int j = 0; j < m; j++)
+			if (cols[j] < n) ns++;
+		dc[i] = new int[ns];
+		dv[i] = new double[ns];
+		bc[i] = new int[m - ns];
+		bv[i] = new double[m - ns];
+		for (int j = 0, a = 0, b = 0; j < m; j++)
+			if (cols[j] < n) {
+				dc[i][a] = cols[j];
+				dv[i][a++] = vals[j];
+			} else {
+				bc[i][b] = cols[j] - n;
+				bv[i][b++] = vals[j];
+			}
+	}
+
+	private static boolean equalRows(SparseMatrix a, SparseMatrix b, int r) {
+		int l = a.len[r];
+		if (b.len[r] != l) return false;
+		int[] ac = a.idx[r], bc = b.idx[r];
+		double[] av = a.val[r], bv = b.val[r];
+		for (int j = 0; j < l; j++)
+			if (ac[j] != bc[j] || av[j] != bv[j]) return false;
+		return true;
+	}
+
+}
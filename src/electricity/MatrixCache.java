@@ -0,0 +1,232 @@
+package electricity;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Memory bounded cache of solved equation systems by switch state and, for equations that depend on it, the tick length.<br>
+ * Keys are switch bit vectors packed into {@code long[]} words with an incrementally maintained hash (see {@link #bitHash(int)}), so lookups don't allocate.
+ * When the memory budget is exceeded, entries are evicted in least recently used order, but entries that got hits since they were last considered get a second chance with their hit count halved.
+ * Factorizations {@link Solution#shared() shared} by several entries are counted once for as long as any of them is cached.
+ */
+public class MatrixCache {
+
+	/**default memory budget in bytes for new caches */
+	public static long defaultBudget = 64L << 20;
+
+	private Entry[] table = new Entry[16];
+	/**sentinel of the doubly linked usage list: head.after is most, head.before least recently used */
+	private final Entry head = new Entry(null, 0, 0, null, 0);
+	/**amount of entries referencing each shared solution */
+	private final IdentityHashMap<Solution, int[]> shared = new IdentityHashMap<Solution, int[]>();
+	private int entries;
+	/**memory held outside the entries on behalf of the cached solutions, see {@link #reserve(long)} */
+	private long reserved;
+	private long size, budget = defaultBudget;
+	private long hits, misses, evictions;
+	/**amount of circuits using this cache, see {@link Circuit#share(Circuit)} */
+	int users = 1;
+
+	public MatrixCache() {
+		head.before = head.after = head;
+	}
+
+	/**
+	 * @param key switch states
+	 * @param hash hash of the switch states (xor of {@link #bitHash(int)} for all set bits)
+	 * @return the cached solution or null if not present
+	 */
+	public Solution get(long[] key, int hash) {
+		return get(key, hash, 0);
+	}
+
+	/**
+	 * @param key switch states
+	 * @param hash hash of the switch states (xor of {@link #bitHash(int)} for all set bits)
+	 * @param step [s] tick length the equations were assembled for, or 0 if they don't depend on it
+	 * @return the cached solution or null if not present
+	 */
+	public Solution get(long[] key, int hash, double step) {
+		hash ^= stepHash(step);
+		for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next)
+			if (e.hash == hash && e.step == step && Arrays.equals(e.key, key)) {
+				hits++;
+				if (e.freq < Integer.MAX_VALUE) e.freq++;
+				e.unlink();
+				e.link(head);
+				return e.value;
+			}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * adds a new solution to the cache, evicting others if the budget is exceeded.
+	 * @param key switch states (will be copied)
+	 * @param hash hash of the switch states
+	 * @param value the solution
+	 */
+	public void put(long[] key, int hash, Solution value) {
+		put(key, hash, 0, value);
+	}
+
+	/**
+	 * adds a new solution to the cache, evicting others if the budget is exceeded.
+	 * @param key switch states (will be copied)
+	 * @param hash hash of the switch states
+	 * @param step [s] tick length the equations were assembled for, or 0 if they don't depend on it
+	 * @param value the solution
+	 */
+	public void put(long[] key, int hash, double step, Solution value) {
+		Solution s = value.shared();
+		Entry e = new Entry(key.clone(), hash ^ stepHash(step), step, value, (s == value ? 0 : value.memory()) + 40 + 8 * key.length);
+		if (s != null) ref(s);
+		int i = e.hash & (table.length - 1);
+		e.next = table[i];
+		table[i] = e;
+		e.link(head);
+		size += e.size;
+		if (++entries > table.length * 3 / 4) rehash();
+		evict();
+	}
+
+	/**
+	 * removes all entries (counters are kept)
+	 */
+	public void clear() {
+		Arrays.fill(table, null);
+		shared.clear();
+		head.before = head.after = head;
+		entries = 0;
+		size = reserved;
+	}
+
+	/**
+	 * accounts memory held elsewhere for data derived from the cached solutions, like their {@link Propagator} discretizations, evicting solutions if the budget is exceeded
+	 * @param bytes amount of memory added (negative if released)
+	 */
+	public void reserve(long bytes) {
+		reserved += bytes;
+		size += bytes;
+		evict();
+	}
+
+	/**
+	 * @param bytes new memory budget
+	 */
+	public void setBudget(long bytes) {
+		budget = bytes;
+		evict();
+	}
+
+	public long budget() {return budget;}
+	/**@return approximate memory used by the cached solutions and the data derived from them in bytes */
+	public long size() {return size;}
+	public int entries() {return entries;}
+	public long hits() {return hits;}
+	public long misses() {return misses;}
+	public long evictions() {return evictions;}
+
+	private void evict() {
+		while (size > budget && entries > 1) {
+			Entry e = head.before;
+			e.unlink();
+			if (e.freq > 0) {
+				e.freq >>= 1;
+				e.link(head);
+				continue;
+			}
+			remove(e);
+			evictions++;
+		}
+	}
+
+	private void remove(Entry e) {
+		int i = e.hash & (table.length - 1);
+		Entry p = table[i];
+		if (p == e) table[i] = e.next;
+		else {
+			while (p.next != e) p = p.next;
+			p.next = e.next;
+		}
+		entries--;
+		size -= e.size;
+		Solution s = e.value.shared();
+		if (s != null) unref(s);
+	}
+
+	private void ref(Solution s) {
+		int[] n = shared.get(s);
+		if (n == null) {
+			shared.put(s, n = new int[1]);
+			size += s.memory();
+		}
+		n[0]++;
+	}
+
+	private void unref(Solution s) {
+		int[] n = shared.get(s);
+		if (--n[0] > 0) return;
+		shared.remove(s);
+		size -= s.memory();
+	}
+
+	private void rehash() {
+		Entry[] old = table;
+		table = new Entry[old.length * 2];
+		for (Entry e : old)
+			while (e != null) {
+				Entry n = e.next;
+				int i = e.hash & (table.length - 1);
+				e.next = table[i];
+				table[i] = e;
+				e = n;
+			}
+	}
+
+	/**
+	 * @param i switch index
+	 * @return the hash contribution of the given switch being on
+	 */
+	public static int bitHash(int i) {
+		long x = (i + 1) * 0x9E3779B97F4A7C15L;
+		x = (x ^ x >>> 32) * 0xD6E8FEB86659FD93L;
+		return (int)(x ^ x >>> 32);
+	}
+
+	private static int stepHash(double step) {
+		long x = Double.doubleToLongBits(step) * 0x9E3779B97F4A7C15L;
+		return (int)(x ^ x >>> 32);
+	}
+
+	private static class Entry {
+		final long[] key;
+		final int hash;
+		final double step;
+		final Solution value;
+		final long size;
+		int freq;
+		Entry next, before, after;
+
+		Entry(long[] key, int hash, double step, Solution value, long size) {
+			this.key = key;
+			this.hash = hash;
+			this.step = step;
+			this.value = value;
+			this.size = size;
+		}
+
+		void link(Entry head) {
+			after = head.after;
+			before = head;
+			after.before = this;
+			head.after = this;
+		}
+
+		void unlink() {
+			before.after = after;
+			after.before = before;
+		}
+	}
+
+}
@@ -0,0 +1,208 @@
+package electricity;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Runtime statistics of one circuit, to find out why it simulates slowly.<br>
+ * Counters are striped ({@link LongAdder}) and latencies go into histograms with power of two buckets, so recording them needs no locks and they can be read by other threads at any time.
+ * Which circuits exist is published by the simulating thread before each tick, so readers never touch {@link Circuit#circuits} itself.
+ * Cache hits and misses are taken from the circuit's {@link MatrixCache}.
+ */
+public class Metrics {
+
+	/**JMX name of the {@link MetricsMXBean} of all circuits */
+	public static final String JmxName = "electricity:type=Circuits";
+
+	final Circuit circuit;
+	/**only every n-th evaluation is timed, because reading the clock costs about as much as evaluating a small circuit */
+	static final int SampleRate = 16;
+	/**metrics of the circuits as of the last tick or reset, never changed once published */
+	private static volatile Metrics[] published = new Metrics[0];
+
+	final LongAdder ticks = new LongAdder(), reruns = new LongAdder(), setups = new LongAdder(), rescans = new LongAdder(), flipCount = new LongAdder(), evaluations = new LongAdder(), propagated = new LongAdder();
+	/**nanoseconds spent solving equation systems on cache misses and (sampled) evaluating the solution for new parameter values */
+	final Histogram solveTime = new Histogram(), evalTime = new Histogram();
+	private int samples;
+	/**flips of each switch and the component owning it, replaced on circuit setup (previous flips are added to {@link #flipCount}) */
+	long[] flips = new long[0];
+	Component[] owners = new Component[0];
+
+	Metrics(Circuit circuit) {
+		this.circuit = circuit;
+	}
+
+	/**@return {@link Circuit#id()} */
+	public int getId() {return circuit.id();}
+	/**@return simulated ticks */
+	public long getTicks() {return ticks.sum();}
+	/**@return ticks done by exact propagation of the reactive components without evaluating the equations */
+	public long getPropagated() {return propagated.sum();}
+	/**@return ticks whose equations had to be evaluated again because a component requested it via {@link Circuit#skipTick} */
+	public long getReruns() {return reruns.sum();}
+	/**@return equation layout setups after topology changes */
+	public long getSetups() {return setups.sum();}
+	/**@return connectivity scans after components were removed */
+	public long getRescans() {return rescans.sum();}
+	/**@return evaluations of the solution for new parameter values */
+	public long getEvaluations() {return evaluations.sum();}
+	/**@return total switch state changes */
+	public long getSwitchFlips() {
+		long n = flipCount.sum();
+		for (long x : flips) n += x;
+		return n;
+	}
+	public long getCacheHits() {return circuit.cache().hits();}
+	public long getCacheMisses() {return circuit.cache().misses();}
+	public int getNodes() {return circuit.nodes();}
+	public int getParameters() {return circuit.parameters();}
+	public int getSwitches() {return circuit.switches();}
+	public Histogram getSolveTime() {return solveTime;}
+	public Histogram getEvaluationTime() {return evalTime;}
+
+	/**
+	 * @return switch flips since the last setup for each switching component (named by class and equation id)
+	 */
+	public Map<String, Long> getComponentFlips() {
+		long[] flips = this.flips;
+		Component[] owners = this.owners;
+		LinkedHashMap<String, Long> map = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < flips.length && i < owners.length; i++)
+			if (owners[i] != null)
+				map.merge(owners[i].getClass().getSimpleName() + "#" + owners[i].id, flips[i], Long::sum);
+		return map;
+	}
+
+	/**
+	 * called on setup, with {@code owners[i]} being the component that allocated switch i
+	 */
+	void setup(Component[] owners) {
+		setups.increment();
+		for (long x : flips) flipCount.add(x);
+		this.flips = new long[owners.length];
+		this.owners = owners;
+	}
+
+	/**
+	 * called by the ticking thread for each evaluation
+	 * @return whether to time this one
+	 */
+	boolean evaluation() {
+		evaluations.increment();
+		return ++samples % SampleRate == 0;
+	}
+
+	/**
+	 * called by the ticking thread when switch i changed
+	 */
+	void flip(int i) {
+		long[] f = flips;
+		if (i < f.length) f[i]++;
+	}
+
+	/**
+	 * called by the simulating thread, publishes the metrics of the given circuits if they aren't the published ones anymore
+	 */
+	static void publish(Collection<Circuit> circuits) {
+		Metrics[] p = published;
+		boolean same = p.length == circuits.size();
+		int i = 0;
+		if (same)
+			for (Circuit c : circuits)
+				if (!(same = p[i++].circuit == c)) break;
+		if (same) return;
+		p = new Metrics[circuits.size()];
+		i = 0;
+		for (Circuit c : circuits) p[i++] = c.metrics();
+		published = p;
+	}
+
+	/**
+	 * @return metrics of all circuits as of the last tick, safe to call from any thread
+	 */
+	public static List<Metrics> all() {
+		return new ArrayList<Metrics>(Arrays.asList(published));
+	}
+
+	/**
+	 * registers the {@link MetricsMXBean} of all circuits at the platform MBean server (if not already done)
+	 * @throws JMException if registration failed
+	 */
+	public static synchronized void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(JmxName);
+		if (!server.isRegistered(name))
+			server.registerMBean(new StandardMBean((MetricsMXBean)Metrics::all, MetricsMXBean.class, true), name);
+	}
+
+	/**
+	 * Latency histogram with bucket i counting durations in [2^(i-1), 2^i) ns.<br>
+	 * Only written by the thread currently ticking the circuit, so increments don't need atomic read-modify-write.
+	 */
+	public static class Histogram {
+
+		private final AtomicLongArray buckets = new AtomicLongArray(64);
+		private final LongAdder total = new LongAdder();
+
+		/**
+		 * @param ns recorded duration
+		 */
+		public void record(long ns) {
+			int i = 64 - Long.numberOfLeadingZeros(Math.max(ns, 0));
+			buckets.lazySet(i, buckets.get(i) + 1);
+			total.add(ns);
+		}
+
+		public long getCount() {
+			long n = 0;
+			for (int i = 0; i < 64; i++) n += buckets.get(i);
+			return n;
+		}
+
+		/**@return total recorded time in ns */
+		public long getTotal() {return total.sum();}
+
+		/**@return counts of all buckets */
+		public long[] getBuckets() {
+			long[] a = new long[64];
+			for (int i = 0; i < 64; i++) a[i] = buckets.get(i);
+			return a;
+		}
+
+		/**
+		 * @param q quantile in [0, 1]
+		 * @return upper bound of the bucket containing the given quantile in ns
+		 */
+		public long quantile(double q) {
+			long[] a = getBuckets();
+			long n = 0;
+			for (long x : a) n += x;
+			long k = (long)Math.ceil(q * (double)n);
+			for (int i = 0; i < 64; i++)
+				if ((k -= a[i]) <= 0) return i == 0 ? 0 : (1L << i) - 1;
+			return Long.MAX_VALUE;
+		}
+
+		public long getMedian() {return quantile(0.5);}
+		public long getP99() {return quantile(0.99);}
+
+		/**@return mean duration in ns */
+		public double mean() {
+			long n = getCount();
+			return n == 0 ? 0 : (double)getTotal() / (double)n;
+		}
+	}
+
+}
@@ -0,0 +1,12 @@
+package electricity;
+
+import java.util.List;
+
+/**
+ * JMX view of the {@link Metrics} of all circuits currently simulated.
+ */
+public interface MetricsMXBean {
+
+	public List<Metrics> getCircuits();
+
+}
@@ -0,0 +1,377 @@
+package electricity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.lang.ref.WeakReference;
+import java.util.BitSet;
+import java.util.WeakHashMap;
+
+/**
+ * Exact discretization of a circuit's {@link IReactive} components: Between switch changes their states x follow the linear system
+ * {@code x' = A x + b}, so a tick is {@code z <- P z} with {@code z = [x; 1]} and {@code P = exp([A b; 0 0] * dt)}.
+ * Multiple ticks at once are done by repeated squaring of P.<br>
+ * Only the state variables read by the other listeners are computed for each tick, as linear functions of z.<br>
+ * The discretizations are kept per solution without keeping it alive, and their memory counts to the budget of its {@link MatrixCache}.
+ */
+public class Propagator {
+
+	/**magnitude below which decaying states are set to zero, before they become subnormal numbers that are very slow to compute with */
+	static final double Flush = 1e-200;
+	/**maximum amount of switch states to keep discretizations for */
+	static final int MaxEntries = 64;
+	/**amount of matrix multiplications of {@link #exp(double[], int)} and its squarings */
+	static final int ExpCost = 20;
+	/**cost of a listener update or of the bookkeeping of a normal tick, in multiply-adds */
+	static final int ListenerCost = 64;
+
+	final IReactive[] reactive;
+	/**parameter index of each reactive state */
+	final int[] pars;
+	/**which parameters are reactive states */
+	private final BitSet isPar = new BitSet();
+	/**state variables read by the listeners */
+	final int[] watched;
+	/**notifiers that are not reactive, updated each tick with the watched state variables */
+	final INotify[] others;
+	private final int m;
+	private final WeakHashMap<Solution, Step> steps = new WeakHashMap<Solution, Step>();
+	/**sentinel of the doubly linked usage list: head.after is most, head.before least recently used */
+	private final Step head = new Step();
+	private Step step;
+	/**amount and memory of the discretizations in the usage list */
+	private int entries;
+	private long memory;
+	/**memory of the discretizations last accounted in the cache */
+	private long reserved;
+	/**whether the last tick left the state unchanged, so it reached the fixed point of the current discretization */
+	private boolean fixed;
+	/**whether the state was advanced since entering, z1 then holds the state a tick earlier */
+	private boolean moved;
+	/**current state and a buffer for multiplications */
+	private double[] z, z1;
+
+	private Propagator(IReactive[] reactive, int[] watched, INotify[] others) {
+		this.reactive = reactive;
+		this.watched = watched;
+		this.others = others;
+		this.m = reactive.length + 1;
+		this.pars = new int[reactive.length];
+		for (int i = 0; i < pars.length; i++) isPar.set(pars[i] = reactive[i].state());
+		this.z = new double[m];
+		this.z1 = new double[m];
+	}
+
+	/**
+	 * @return a propagator for a circuit with the given listeners or null if any of them doesn't declare what it reads
+	 */
+	static Propagator of(ArrayList<INotify> preNotifier, ArrayList<INotify> notifier) {
+		ArrayList<IReactive> reactive = new ArrayList<IReactive>();
+		ArrayList<INotify> others = new ArrayList<INotify>();
+		BitSet watched = new BitSet();
+		for (INotify n : preNotifier) {
+			int[] r = n.reads();
+			if (r == null) return null;
+			for (int i : r) watched.set(i);
+		}
+		for (INotify n : notifier)
+			if (n instanceof IReactive) reactive.add((IReactive)n);
+			else {
+				int[] r = n.reads();
+				if (r == null) return null;
+				for (int i : r) watched.set(i);
+				others.add(n);
+			}
+		return new Propagator(reactive.toArray(new IReactive[reactive.size()]), watched.stream().toArray(), others.toArray(new INotify[others.size()]));
+	}
+
+	/**
+	 * @param sol solution of the current switch state
+	 * @param listeners amount of listeners updated on normal ticks
+	 * @return amount of ticks a switch state has to last, so that computing its discretization costs less than the normal ticks it replaces.
+	 * Estimated from the arithmetic and listener updates of normal ticks versus the ones needed for the discretization and for propagated ticks.
+	 */
+	long breakEven(Solution sol, int listeners) {
+		long solve = sol.memory() / 8, mm = (long)m * m;
+		long saved = 2 * solve + (long)ListenerCost * (1 + listeners - others.length) - (long)m * watched.length - mm;
+		if (saved <= 0) return Long.MAX_VALUE;
+		return ((m + 1) * solve + ExpCost * mm * m) / saved + 1;
+	}
+
+	/**
+	 * @return whether the discretization for the given switch state and tick length is already available
+	 */
+	boolean ready(Solution sol, double[] values, double dt) {
+		Step s = steps.get(sol);
+		return s != null && s.dt == dt && s.matches(values);
+	}
+
+	/**
+	 * starts propagating from the current parameter values
+	 * @param sol solution of the current switch state
+	 * @param values current parameter values
+	 * @param states amount of state variables
+	 * @param dt [s] tick length
+	 * @param cache the cache holding sol, to account the discretization's memory in
+	 */
+	void enter(Solution sol, double[] values, int states, double dt, MatrixCache cache) {
+		Step s = steps.get(sol);
+		if (s == null || s.dt != dt || !s.matches(values)) {
+			if (s != null) remove(s);
+			steps.put(sol, s = new Step(sol, values, states, dt));
+			entries++;
+			memory += s.memory();
+			s.link(head);
+			fit(s, cache);
+		} else if (head.after != s) {
+			s.unlink();
+			s.link(head);
+		}
+		step = s;
+		for (int i = 0; i < pars.length; i++) z[i] = values[pars[i]];
+		z[m - 1] = 1;
+		fixed = moved = false;
+	}
+
+	/**
+	 * evicts the least recently used discretizations other than the given one, until they fit into the cache's budget together with its solutions
+	 */
+	private void fit(Step s, MatrixCache cache) {
+		while (head.before != s && (entries > MaxEntries || cache.size() - reserved + memory > cache.budget())) {
+			Step lru = head.before;
+			Solution key = lru.key.get();
+			//steps of collected solutions are already gone from the map
+			if (key != null) steps.remove(key);
+			remove(lru);
+		}
+		cache.reserve(memory - reserved);
+		reserved = memory;
+	}
+
+	/**
+	 * takes a discretization out of the usage list, the caller accounts its memory in the cache
+	 */
+	private void remove(Step s) {
+		s.unlink();
+		entries--;
+		memory -= s.memory();
+	}
+
+	/**
+	 * drops all discretizations and their memory from the given cache
+	 */
+	void release(MatrixCache cache) {
+		steps.clear();
+		head.before = head.after = head;
+		entries = 0;
+		memory = 0;
+		cache.reserve(-reserved);
+		reserved = 0;
+	}
+
+	/**
+	 * stops propagating and hands the current state back to the components
+	 * @param values parameter values to update
+	 */
+	void leave(double[] values) {
+		//the components still hold the state they were entered with
+		if (!moved) return;
+		//their own updates derive the next tick from the change over the last one
+		double[] rates = step.rates;
+		for (int i = 0, k = 0; i < pars.length; i++) {
+			double dx = 0;
+			for (int j = 0; j < m; j++, k++) dx += rates[k] * z1[j];
+			values[pars[i]] = z[i];
+			reactive[i].setState(z[i], dx);
+		}
+	}
+
+	/**@return [s] tick length of the current discretization */
+	double dt() {return step.dt;}
+
+	/**
+	 * computes the watched state variables for the current state
+	 */
+	void outputs(double[] result) {
+		if (fixed) return;
+		double[] rows = step.rows, z = this.z;
+		for (int w = 0, k = 0; w < watched.length; w++) {
+			double x = 0;
+			for (int j = 0; j < m; j++, k++) x += rows[k] * z[j];
+			result[watched[w]] = x;
+		}
+	}
+
+	/**
+	 * advances the state by one tick
+	 */
+	void tick() {
+		if (fixed) return;
+		multiply(step.phi, z, z1, m);
+		double[] t = z; z = z1; z1 = t;
+		flush();
+		fixed = Arrays.equals(z, z1);
+		moved = true;
+	}
+
+	private void flush() {
+		for (int i = 0; i < m; i++)
+			if (Math.abs(z[i]) < Flush) z[i] = 0;
+	}
+
+	/**
+	 * advances the state by k ticks
+	 */
+	void jump(long k) {
+		if (fixed) return;
+		double[] p = step.phi.clone(), t = new double[m * m];
+		for (; k > 0; k >>>= 1) {
+			if ((k & 1) != 0) {
+				multiply(p, z, z1, m);
+				double[] x = z; z = z1; z1 = x;
+			}
+			if (k > 1) {
+				square(p, t, m);
+				double[] x = p; p = t; t = x;
+				for (int i = 0; i < p.length; i++)
+					if (Math.abs(p[i]) < Flush) p[i] = 0;
+			}
+		}
+		flush();
+		//the state a tick earlier is not known, so the current one stands in for it
+		System.arraycopy(z, 0, z1, 0, m);
+		moved = true;
+	}
+
+	private static void multiply(double[] a, double[] x, double[] y, int m) {
+		for (int i = 0, k = 0; i < m; i++) {
+			double s = 0;
+			for (int j = 0; j < m; j++, k++) s += a[k] * x[j];
+			y[i] = s;
+		}
+	}
+
+	/**
+	 * r = a * a
+	 */
+	private static void square(double[] a, double[] r, int m) {
+		Arrays.fill(r, 0);
+		for (int i = 0; i < m; i++)
+			for (int k = 0; k < m; k++) {
+				double x = a[i * m + k];
+				if (x != 0)
+					for (int j = 0; j < m; j++) r[i * m + j] += x * a[k * m + j];
+			}
+	}
+
+	/**
+	 * @return exp(a) by scaling and squaring of its taylor series
+	 */
+	static double[] exp(double[] a, int m) {
+		double norm = 0;
+		for (int i = 0; i < m; i++) {
+			double s = 0;
+			for (int j = 0; j < m; j++) s += Math.abs(a[i * m + j]);
+			norm = Math.max(norm, s);
+		}
+		//scale the norm below 1/2, where 16 terms are accurate to machine precision
+		int sq = norm > 0.5 ? Math.getExponent(norm) + 2 : 0;
+		double f = Math.scalb(1.0, -sq);
+		double[] b = new double[m * m], term = new double[m * m], r = new double[m * m], t = new double[m * m];
+		for (int i = 0; i < b.length; i++) b[i] = a[i] * f;
+		for (int i = 0; i < m; i++) term[i * m + i] = r[i * m + i] = 1;
+		for (int n = 1; n <= 16; n++) {
+			Arrays.fill(t, 0);
+			for (int i = 0; i < m; i++)
+				for (int k = 0; k < m; k++) {
+					double x = term[i * m + k];
+					if (x != 0)
+						for (int j = 0; j < m; j++) t[i * m + j] += x * b[k * m + j];
+				}
+			for (int i = 0; i < t.length; i++) r[i] += term[i] = t[i] / n;
+		}
+		for (int i = 0; i < sq; i++) {
+			square(r, t, m);
+			double[] x = r; r = t; t = x;
+		}
+		return r;
+	}
+
+	/**
+	 * Discretization for one switch state and tick length
+	 */
+	class Step {
+		final double dt;
+		/**rates of the reactive states per tick, transition matrix of z and the watched state variables as rows over z */
+		final double[] rates, phi, rows;
+		/**the constant parameters it was derived from (reactive ones zeroed) */
+		final double[] u;
+		/**the solution it was derived from, not kept alive by it */
+		final WeakReference<Solution> key;
+		Step before, after;
+
+		/**
+		 * creates the sentinel of the usage list
+		 */
+		Step() {
+			dt = 0;
+			rates = phi = rows = u = null;
+			key = null;
+			before = after = this;
+		}
+
+		Step(Solution sol, double[] values, int states, double dt) {
+			this.dt = dt;
+			key = new WeakReference<Solution>(sol);
+			int n = reactive.length;
+			u = values.clone();
+			for (int i : pars) u[i] = 0;
+			double[][] cols = new double[m][];
+			//state variables caused by each reactive state and by the constant parameters
+			double[] v = new double[values.length];
+			for (int j = 0; j < n; j++) {
+				v[pars[j]] = 1;
+				sol.solve(v, cols[j] = new double[states]);
+				v[pars[j]] = 0;
+			}
+			sol.solve(u, cols[n] = new double[states]);
+			double[] a = new double[m * m];
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < m; j++)
+					a[i * m + j] = reactive[i].rate(cols[j]) * dt;
+			phi = exp(rates = a, m);
+			rows = new double[watched.length * m];
+			for (int w = 0, k = 0; w < watched.length; w++)
+				for (int j = 0; j < m; j++, k++)
+					rows[k] = cols[j][watched[w]];
+		}
+
+		/**
+		 * @return approximate amount of memory in bytes held by this discretization
+		 */
+		long memory() {
+			return 128 + 8L * (rates.length + phi.length + rows.length + u.length);
+		}
+
+		void link(Step head) {
+			after = head.after;
+			before = head;
+			after.before = this;
+			head.after = this;
+		}
+
+		void unlink() {
+			before.after = after;
+			after.before = before;
+		}
+
+		/**
+		 * @return whether the constant parameters are still the same
+		 */
+		boolean matches(double[] values) {
+			for (int i = 0; i < values.length; i++)
+				if (values[i] != u[i] && !isPar.get(i)) return false;
+			return true;
+		}
+	}
+
+}
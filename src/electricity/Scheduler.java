@@ -0,0 +1,78 @@
+package electricity;
+
+import java.util.Arrays;
+
+/**
+ * Priority queue of timed events, implemented as binary heap over parallel arrays.
+ */
+public class Scheduler {
+
+	private double[] times = new double[8];
+	private IScheduled[] events = new IScheduled[8];
+	private int size;
+
+	/**
+	 * @param time [s] when the event is due
+	 * @param e the event
+	 */
+	public void add(double time, IScheduled e) {
+		if (size == times.length) {
+			times = Arrays.copyOf(times, size * 2);
+			events = Arrays.copyOf(events, size * 2);
+		}
+		int i = size++;
+		while (i > 0) {
+			int p = (i - 1) >> 1;
+			if (times[p] <= time) break;
+			times[i] = times[p];
+			events[i] = events[p];
+			i = p;
+		}
+		times[i] = time;
+		events[i] = e;
+	}
+
+	/**
+	 * @return [s] time of the earliest event or infinity if empty
+	 */
+	public double next() {
+		return size == 0 ? Double.POSITIVE_INFINITY : times[0];
+	}
+
+	/**
+	 * triggers and removes all events due until the given time, in order of their times.
+	 * Events may schedule new ones, which are also triggered if already due.
+	 * @param now [s] current time
+	 */
+	public void run(double now) {
+		while (size > 0 && times[0] <= now) {
+			double t = times[0];
+			IScheduled e = events[0];
+			remove();
+			e.trigger(t);
+		}
+	}
+
+	private void remove() {
+		double time = times[--size];
+		IScheduled e = events[size];
+		events[size] = null;
+		int i = 0;
+		for (int c; (c = 2 * i + 1) < size; i = c) {
+			if (c + 1 < size && times[c + 1] < times[c]) c++;
+			if (time <= times[c]) break;
+			times[i] = times[c];
+			events[i] = events[c];
+		}
+		times[i] = time;
+		events[i] = e;
+	}
+
+	public int size() {return size;}
+
+	public void clear() {
+		Arrays.fill(events, 0, size, null);
+		size = 0;
+	}
+
+}
@@ -0,0 +1,195 @@
+package electricity;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The solved form of a circuit's equation system for one specific switch state, used to calculate all state variables from the current parameter values.<br>
+ * Solutions don't change once computed, so circuits of the same layout can share them and evaluate them in parallel.
+ */
+public abstract class Solution {
+
+	/**
+	 * calculates the state variables
+	 * @param values all parameter values
+	 * @param result array to store the state variables in
+	 */
+	public abstract void solve(double[] values, double[] result);
+
+	/**
+	 * calculates the state variables for several parameter vectors at once
+	 * @param values parameter values of each instance
+	 * @param result arrays to store the state variables of each instance in
+	 * @param n amount of instances
+	 */
+	public void solve(double[][] values, double[][] result, int n) {
+		for (int i = 0; i < n; i++) solve(values[i], result[i]);
+	}
+
+	/**
+	 * adds the effect of a few changed parameters to a previously calculated result
+	 * @param changed indices of the changed parameters
+	 * @param delta the change of each parameter listed in changed
+	 * @param n amount of changed parameters
+	 * @param result state variables to update
+	 * @return false if not supported, so {@link #solve(double[], double[])} needs to be called instead
+	 */
+	public boolean update(int[] changed, double[] delta, int n, double[] result) {
+		return false;
+	}
+
+	/**
+	 * @return approximate amount of memory in bytes held by this solution
+	 */
+	public abstract long memory();
+
+	/**
+	 * @return the solution this one is based on and keeps alive, which may also be shared by others, this if it's such a base itself or null.
+	 * Its memory is only included in {@link #memory()} if it's this.
+	 */
+	public Solution shared() {
+		return null;
+	}
+
+	/**
+	 * The explicit solution matrix of size {@code states x parameters}.<br>
+	 * Cheaper to evaluate than a forward/back substitution when there are only few parameters compared to the amount of states.
+	 * It is stored in one row major array and large matrices are multiplied in row blocks on the {@link Circuit#pool} if available.
+	 */
+	public static class Dense extends Solution {
+
+		/**minimum amount of elements to split the multiplication into parallel row blocks */
+		static final int ParallelWork = 1 << 16;
+		/**amount of elements to multiply per parallel task */
+		static final int BlockWork = 1 << 13;
+
+		public final int rows, cols;
+		/**element {@code [i][j]} is at index {@code i * cols + j} */
+		public final double[] matrix;
+
+		public Dense(int rows, int cols, double[] matrix) {
+			this.rows = rows;
+			this.cols = cols;
+			this.matrix = matrix;
+		}
+
+		/**
+		 * computes the solution matrix column by column from the given solution
+		 * @param sol solved equation system
+		 * @param states amount of state variables
+		 * @param params amount of parameters
+		 */
+		public Dense(Solution sol, int states, int params) {
+			this(states, params, new double[states * params]);
+			double[] e = new double[params], x = new double[states];
+			for (int j = 0; j < params; j++) {
+				e[j] = 1;
+				sol.solve(e, x);
+				e[j] = 0;
+				for (int i = 0, k = j; i < states; i++, k += params)
+					matrix[k] = x[i];
+			}
+		}
+
+		@Override
+		public void solve(double[] values, double[] result) {
+			ForkJoinPool pool = Circuit.pool;
+			if (pool == null || matrix.length < ParallelWork) multiply(values, result, 0, rows);
+			else if (ForkJoinTask.inForkJoinPool()) new Block(values, result, 0, rows).invoke();
+			else pool.invoke(new Block(values, result, 0, rows));
+		}
+
+		@Override
+		public boolean update(int[] changed, double[] delta, int n, double[] result) {
+			final double[] m = matrix;
+			for (int i = 0, k = 0; i < rows; i++, k += cols) {
+				double x = 0;
+				for (int j = 0; j < n; j++)
+					x += m[k + changed[j]] * delta[j];
+				result[i] += x;
+			}
+			return true;
+		}
+
+		@Override
+		public void solve(double[][] values, double[][] result, int n) {
+			//each matrix row is read once and applied to all parameter vectors while it's in cache
+			for (int i = 0, k = 0; i < rows; i++, k += cols)
+				for (int b = 0; b < n; b++)
+					result[b][i] = dot(k, values[b]);
+		}
+
+		/**
+		 * computes rows {@code i0 <= i < i1} of the result
+		 */
+		void multiply(double[] values, double[] result, int i0, int i1) {
+			for (int i = i0, k = i0 * cols; i < i1; i++, k += cols)
+				result[i] = dot(k, values);
+		}
+
+		/**
+		 * The jdk.incubator.vector API would be about 1.8x faster here, but stays out as long as it needs {@code --add-modules} for every compile and launch.
+		 * @return the product of the matrix row starting at index k with the given vector
+		 */
+		private double dot(int k, double[] values) {
+			final double[] m = matrix;
+			final int n = cols, n4 = n & ~3;
+			//independent partial sums, so the additions don't wait for each other
+			double x0 = 0, x1 = 0, x2 = 0, x3 = 0;
+			int j = 0;
+			for (; j < n4; j += 4) {
+				x0 += m[k + j] * values[j];
+				x1 += m[k + j + 1] * values[j + 1];
+				x2 += m[k + j + 2] * values[j + 2];
+				x3 += m[k + j + 3] * values[j + 3];
+			}
+			for (; j < n; j++)
+				x0 += m[k + j] * values[j];
+			return (x0 + x1) + (x2 + x3);
+		}
+
+		@Override
+		public long memory() {
+			return 32 + 8L * matrix.length;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeInt(rows);
+			out.writeInt(cols);
+			SolutionStore.writeDoubles(out, matrix);
+		}
+
+		static Dense read(ByteBuffer b) {
+			int rows = b.getInt(), cols = b.getInt();
+			return new Dense(rows, cols, SolutionStore.readDoubles(b));
+		}
+
+		private class Block extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+			final double[] values, result;
+			final int i0, i1;
+
+			Block(double[] values, double[] result, int i0, int i1) {
+				this.values = values;
+				this.result = result;
+				this.i0 = i0;
+				this.i1 = i1;
+			}
+
+			@Override
+			protected void compute() {
+				if ((i1 - i0) * cols <= BlockWork || i1 - i0 < 2) multiply(values, result, i0, i1);
+				else {
+					int i = (i0 + i1) >>> 1;
+					invokeAll(new Block(values, result, i0, i), new Block(values, result, i, i1));
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,273 @@
+package electricity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Persistent storage of solved equation systems, so that repeated runs of the same circuit plan don't need to factorize them again.<br>
+ * Records are appended to a memory mapped file and addressed by the circuit's topology key and its switch states.
+ * On startup only the record headers are scanned, the solutions themselves are read when first requested.
+ * Each record also stores the hash of the equations it was solved from, so records of a changed circuit are never used but just superseded by new ones.
+ * Access is synchronized so that circuits simulated in parallel can share one store.
+ */
+public class SolutionStore implements Closeable {
+
+	/**file format identifier */
+	static final int Magic = 0x43534C56, Version = 2;
+	/**record types */
+	static final byte DENSE = 0, LU = 1, UPDATE = 2;
+	/**size of the file header and of a record header without switch words */
+	static final int FileHeader = 8, RecordHeader = 24;
+
+	private final FileChannel channel;
+	private final FileLock lock;
+	private final HashMap<Key, Long> index = new HashMap<Key, Long>();
+	/**still referenced solutions by file offset and vice versa, so factorizations shared by updates are only stored once */
+	private final HashMap<Long, WeakReference<Solution>> loaded = new HashMap<Long, WeakReference<Solution>>();
+	private final WeakHashMap<Solution, Long> offsets = new WeakHashMap<Solution, Long>();
+	private MappedByteBuffer map;
+	private long end;
+	private int loads, stores;
+
+	private SolutionStore(FileChannel channel, FileLock lock) throws IOException {
+		this.channel = channel;
+		this.lock = lock;
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) size = Integer.MAX_VALUE;
+		map = channel.map(MapMode.READ_ONLY, 0, size);
+		if (size < FileHeader || map.getInt(0) != Magic || map.getInt(4) != Version) {
+			if (lock == null) throw new IOException("invalid solution store file");
+			channel.truncate(0);
+			ByteBuffer b = ByteBuffer.allocate(FileHeader);
+			b.putInt(Magic).putInt(Version).flip();
+			channel.write(b, 0);
+			end = FileHeader;
+			return;
+		}
+		long p = FileHeader;
+		while (p + RecordHeader <= size) {
+			int len = map.getInt((int)p + 20);
+			if (len < RecordHeader || p + len > size) break;
+			int words = map.getInt((int)p + 16);
+			if (words >= 0) {
+				long[] sw = new long[words];
+				for (int i = 0; i < words; i++)
+					sw[i] = map.getLong((int)p + RecordHeader + i * 8);
+				index.put(new Key(map.getLong((int)p), sw), p);
+			}
+			p += len;
+		}
+		end = p;
+		//drop an incompletely written last record
+		if (lock != null && p < channel.size()) channel.truncate(p);
+	}
+
+	/**
+	 * Opens or creates a solution store. If the file is already in use by another process, it is opened read only.
+	 * @param file the store file
+	 * @return the store
+	 * @throws IOException if the file can't be opened
+	 */
+	public static SolutionStore open(File file) throws IOException {
+		FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			return new SolutionStore(ch, ch.tryLock());
+		} catch (IOException e) {
+			ch.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param circuit topology key of the circuit
+	 * @param switches switch states
+	 * @param hash {@link SparseMatrix#hash()} of the equations
+	 * @return the stored solution or null if not present or solved from different equations
+	 */
+	public synchronized Solution get(long circuit, long[] switches, long hash) {
+		Long q = index.get(new Key(circuit, switches));
+		if (q == null) return null;
+		long p = q;
+		try {
+			mapped(p);
+			if (map.getLong((int)p + 8) != hash) return null;
+			return load(p);
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			index.remove(new Key(circuit, switches));
+			return null;
+		}
+	}
+
+	/**
+	 * appends the given solution to the store (ignored if opened read only)
+	 * @param circuit topology key of the circuit
+	 * @param switches switch states
+	 * @param hash {@link SparseMatrix#hash()} of the equations
+	 * @param sol the solution
+	 */
+	public synchronized void put(long circuit, long[] switches, long hash, Solution sol) {
+		if (lock == null) return;
+		try {
+			long p = append(circuit, switches, hash, sol);
+			if (p >= 0) index.put(new Key(circuit, switches.clone()), p);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**@return amount of solutions read from the file */
+	public int loads() {return loads;}
+	/**@return amount of solutions written to the file */
+	public int stores() {return stores;}
+	/**@return amount of addressable records */
+	public int entries() {return index.size();}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (lock != null) lock.release();
+		channel.close();
+		map = null;
+	}
+
+	/**
+	 * extends the mapping if the record at the given offset was written after it
+	 */
+	private void mapped(long p) throws IOException {
+		if (p + RecordHeader > map.capacity() || p + map.getInt((int)p + 20) > map.capacity())
+			map = channel.map(MapMode.READ_ONLY, 0, end);
+	}
+
+	/**
+	 * @return the payload of the record at the given offset
+	 */
+	private ByteBuffer record(long p) throws IOException {
+		mapped(p);
+		ByteBuffer b = map.duplicate();
+		int words = b.getInt((int)p + 16);
+		b.limit((int)p + b.getInt((int)p + 20));
+		b.position((int)p + RecordHeader + 8 * Math.max(words, 0));
+		return b.slice();
+	}
+
+	private Solution load(long p) throws IOException {
+		WeakReference<Solution> ref = loaded.get(p);
+		Solution sol = ref == null ? null : ref.get();
+		if (sol != null) return sol;
+		ByteBuffer b = record(p);
+		switch(b.get()) {
+		case DENSE: sol = Solution.Dense.read(b); break;
+		case LU: sol = SparseLU.read(b); break;
+		case UPDATE: {
+			Solution base = load(b.getLong());
+			if (!(base instanceof SparseLU)) throw new IOException("invalid base reference");
+			sol = LowRankUpdate.read(b, (SparseLU)base);
+		} break;
+		default: throw new IOException("invalid record type");
+		}
+		loaded.put(p, new WeakReference<Solution>(sol));
+		offsets.put(sol, p);
+		loads++;
+		return sol;
+	}
+
+	/**
+	 * @param switches switch states or null for records only referenced by others
+	 * @return the offset of the written record or -1 if the file is full
+	 */
+	private long append(long circuit, long[] switches, long hash, Solution sol) throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(buf);
+		out.writeLong(circuit);
+		out.writeLong(hash);
+		out.writeInt(switches == null ? -1 : switches.length);
+		out.writeInt(0);
+		if (switches != null)
+			for (long w : switches) out.writeLong(w);
+		if (sol instanceof Solution.Dense) {
+			out.writeByte(DENSE);
+			((Solution.Dense)sol).write(out);
+		} else if (sol instanceof SparseLU) {
+			out.writeByte(LU);
+			((SparseLU)sol).write(out);
+		} else if (sol instanceof LowRankUpdate) {
+			LowRankUpdate upd = (LowRankUpdate)sol;
+			Long base = offsets.get(upd.base);
+			if (base == null && (base = append(circuit, null, 0, upd.base)) < 0) return -1;
+			out.writeByte(UPDATE);
+			out.writeLong(base);
+			upd.write(out);
+		} else return -1;
+		out.close();
+		ByteBuffer b = ByteBuffer.wrap(buf.toByteArray());
+		b.putInt(20, b.capacity());
+		if (end + b.capacity() > Integer.MAX_VALUE) return -1;
+		long p = end;
+		while (b.hasRemaining()) channel.write(b, end + b.position());
+		end += b.capacity();
+		offsets.put(sol, p);
+		loaded.put(p, new WeakReference<Solution>(sol));
+		stores++;
+		return p;
+	}
+
+	static void writeInts(DataOutputStream out, int[] a) throws IOException {
+		out.writeInt(a.length);
+		for (int x : a) out.writeInt(x);
+	}
+
+	static void writeDoubles(DataOutputStream out, double[] a) throws IOException {
+		out.writeInt(a.length);
+		for (double x : a) out.writeDouble(x);
+	}
+
+	static int[] readInts(ByteBuffer b) {
+		int[] a = new int[b.getInt()];
+		b.asIntBuffer().get(a);
+		b.position(b.position() + a.length * 4);
+		return a;
+	}
+
+	static double[] readDoubles(ByteBuffer b) {
+		double[] a = new double[b.getInt()];
+		b.asDoubleBuffer().get(a);
+		b.position(b.position() + a.length * 8);
+		return a;
+	}
+
+	private static class Key {
+		final long circuit;
+		final long[] switches;
+
+		Key(long circuit, long[] switches) {
+			this.circuit = circuit;
+			this.switches = switches;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(circuit) * 31 + Arrays.hashCode(switches);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key k = (Key)obj;
+			return k.circuit == circuit && Arrays.equals(k.switches, switches);
+		}
+	}
+
+}
@@ -0,0 +1,627 @@
+package electricity;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sparse LU factorization of a circuit's equation system {@code A * x = B * p}, where A is formed by the state columns and B by the parameter columns of a {@link SparseMatrix}.<br>
+ * A {@link Symbolic} analysis determines a fill reducing elimination order once, which is then reused by the numeric factorization of all switch states of the circuit,
+ * because switching components only change the values of their equations but not their structure.
+ * Factorizations that can share the same pivots are furthermore computed directly in each other's pattern via {@link #refactor(SparseMatrix)}.
+ */
+public class SparseLU extends Solution {
+
+	/**relative threshold a pivot must reach compared to the largest element in its column */
+	static final double PivotThreshold = 0.1;
+	/**amount of rows to search for a good pivot candidate during analysis */
+	static final int PivotSearch = 4;
+	/**cost of the bookkeeping per row and of one element update of a factorization, relative to an element update of dense elimination (measured by the SolverBenchmark) */
+	static final long RowCost = 1200, UpdateCost = 7;
+
+	public final int n;
+	/**number of solvable pivot steps, the remaining variables are set to 0 */
+	public final int rank;
+	/**original row & column of each pivot step */
+	final int[] rowPerm, colPerm;
+	/**row pointers and column steps of L (ascending) and U (diagonal first), shared with refactorizations */
+	final int[] lp, li, up, ui;
+	/**L and U values */
+	final double[] lx, ux;
+	/**B in compressed row form ordered by pivot step */
+	final int[] bp, bi;
+	final double[] bx;
+	/**amount of arithmetic operations it took to compute this factorization */
+	long ops;
+
+	private SparseLU(int n, int rank, int[] rowPerm, int[] colPerm, int[] lp, int[] li, int[] up, int[] ui, int nB) {
+		this.n = n;
+		this.rank = rank;
+		this.rowPerm = rowPerm;
+		this.colPerm = colPerm;
+		this.lp = lp;
+		this.li = li;
+		this.up = up;
+		this.ui = ui;
+		this.lx = new double[li.length];
+		this.ux = new double[ui.length];
+		this.bp = new int[n + 1];
+		this.bi = new int[nB];
+		this.bx = new double[nB];
+	}
+
+	private SparseLU(int n, int rank, int[] rowPerm, int[] colPerm, int[] lp, int[] li, int[] up, int[] ui, double[] lx, double[] ux, int[] bp, int[] bi, double[] bx) {
+		this.n = n;
+		this.rank = rank;
+		this.rowPerm = rowPerm;
+		this.colPerm = colPerm;
+		this.lp = lp;
+		this.li = li;
+		this.up = up;
+		this.ui = ui;
+		this.lx = lx;
+		this.ux = ux;
+		this.bp = bp;
+		this.bi = bi;
+		this.bx = bx;
+	}
+
+	/**
+	 * @return amount of stored matrix elements (L, U and B)
+	 */
+	public int nonZeros() {
+		return lx.length + ux.length + bx.length;
+	}
+
+	/**
+	 * @return amount of arithmetic operations it took to compute this factorization
+	 */
+	public long operations() {
+		return ops;
+	}
+
+	@Override
+	public long memory() {
+		return 64 + 4L * (rowPerm.length + colPerm.length + lp.length + li.length + up.length + ui.length + bp.length + bi.length)
+			+ 8L * (lx.length + ux.length + bx.length);
+	}
+
+	@Override
+	public Solution shared() {
+		return this;
+	}
+
+	/**
+	 * The substitutions work on the result directly, with the variable of each step at its column,
+	 * so the factorization has no mutable state and can be used by several circuits at once.
+	 */
+	@Override
+	public void solve(double[] values, double[] result) {
+		final int[] cp = colPerm;
+		for (int k = 0; k < rank; k++) {
+			double x = 0;
+			for (int q = bp[k]; q < bp[k + 1]; q++)
+				x += bx[q] * values[bi[q]];
+			for (int q = lp[k]; q < lp[k + 1]; q++)
+				x -= lx[q] * result[cp[li[q]]];
+			result[cp[k]] = x;
+		}
+		substitute(result);
+	}
+
+	@Override
+	public void solve(double[][] values, double[][] result, int m) {
+		if (m == 1) {
+			solve(values[0], result[0]);
+			return;
+		}
+		//each factor element is read only once for all vectors
+		final int[] cp = colPerm;
+		for (int k = 0; k < rank; k++) {
+			int c = cp[k];
+			for (int j = 0; j < m; j++)
+				result[j][c] = 0;
+			for (int q = bp[k]; q < bp[k + 1]; q++) {
+				double b = bx[q];
+				int p = bi[q];
+				for (int j = 0; j < m; j++)
+					result[j][c] += b * values[j][p];
+			}
+			for (int q = lp[k]; q < lp[k + 1]; q++) {
+				double l = lx[q];
+				int p = cp[li[q]];
+				for (int j = 0; j < m; j++)
+					result[j][c] -= l * result[j][p];
+			}
+		}
+		for (int k = rank; k < n; k++)
+			for (int j = 0; j < m; j++)
+				result[j][cp[k]] = 0;
+		for (int k = rank - 1; k >= 0; k--) {
+			int q = up[k], c = cp[k];
+			for (int t = q + 1; t < up[k + 1]; t++) {
+				double u = ux[t];
+				int p = cp[ui[t]];
+				for (int j = 0; j < m; j++)
+					result[j][c] -= u * result[j][p];
+			}
+			double d = ux[q];
+			for (int j = 0; j < m; j++)
+				result[j][c] /= d;
+		}
+	}
+
+	/**
+	 * solves {@code A * x = b} for an arbitrary right hand side
+	 * @param b right hand side indexed by equation
+	 * @param x array to store the state variables in
+	 */
+	public void solveRhs(double[] b, double[] x) {
+		final int[] cp = colPerm;
+		for (int k = 0; k < rank; k++) {
+			double v = b[rowPerm[k]];
+			for (int q = lp[k]; q < lp[k + 1]; q++)
+				v -= lx[q] * x[cp[li[q]]];
+			x[cp[k]] = v;
+		}
+		substitute(x);
+	}
+
+	/**
+	 * backward substitution of U in place of the forward substituted vector
+	 */
+	private void substitute(double[] result) {
+		final int[] cp = colPerm;
+		final int r = rank;
+		for (int k = r; k < n; k++) result[cp[k]] = 0;
+		for (int k = r - 1; k >= 0; k--) {
+			int q = up[k];
+			double x = result[cp[k]];
+			for (int t = q + 1; t < up[k + 1]; t++)
+				x -= ux[t] * result[cp[ui[t]]];
+			result[cp[k]] = x / ux[q];
+		}
+	}
+
+	void write(DataOutputStream out) throws IOException {
+		out.writeInt(n);
+		out.writeInt(rank);
+		out.writeLong(ops);
+		for (int[] a : new int[][] {rowPerm, colPerm, lp, li, up, ui, bp, bi})
+			SolutionStore.writeInts(out, a);
+		for (double[] a : new double[][] {lx, ux, bx})
+			SolutionStore.writeDoubles(out, a);
+	}
+
+	static SparseLU read(ByteBuffer b) {
+		int n = b.getInt(), rank = b.getInt();
+		long ops = b.getLong();
+		int[] rowPerm = SolutionStore.readInts(b), colPerm = SolutionStore.readInts(b),
+			lp = SolutionStore.readInts(b), li = SolutionStore.readInts(b), up = SolutionStore.readInts(b), ui = SolutionStore.readInts(b),
+			bp = SolutionStore.readInts(b), bi = SolutionStore.readInts(b);
+		double[] lx = SolutionStore.readDoubles(b), ux = SolutionStore.readDoubles(b), bx = SolutionStore.readDoubles(b);
+		SparseLU lu = new SparseLU(n, rank, rowPerm, colPerm, lp, li, up, ui, lx, ux, bp, bi, bx);
+		lu.ops = ops;
+		return lu;
+	}
+
+	/**
+	 * Factorizes the given equations using the same pivots and pattern as this factorization.
+	 * @param mat equations
+	 * @return the new factorization or null if the equations don't fit into the pattern or the pivots became numerically unsuitable.
+	 */
+	public SparseLU refactor(SparseMatrix mat) {
+		if (rank < n) return null;
+		final int[] colStep = new int[n];
+		for (int k = 0; k < n; k++) colStep[colPerm[k]] = k;
+		SparseLU lu = new SparseLU(n, rank, rowPerm, colPerm, lp, li, up, ui, bx.length);
+		final double[] lx = lu.lx, ux = lu.ux, w = new double[n];
+		final int[] mark = new int[n];
+		final double maxL = 1.0 / PivotThreshold;
+		int nB = 0;
+		for (int k = 0; k < n; k++) {
+			lu.bp[k] = nB;
+			int p = rowPerm[k], m = k + 1;
+			for (int q = lp[k]; q < lp[k + 1]; q++) mark[li[q]] = m;
+			for (int t = up[k]; t < up[k + 1]; t++) mark[ui[t]] = m;
+			int[] id = mat.idx[p];
+			double[] val = mat.val[p];
+			for (int j = 0; j < mat.len[p]; j++) {
+				int c = id[j];
+				if (c >= n) {
+					if (nB == bx.length) return null;
+					lu.bi[nB] = c - n;
+					lu.bx[nB++] = val[j];
+					continue;
+				}
+				int s = colStep[c];
+				if (mark[s] != m) return null;
+				w[s] = val[j];
+			}
+			for (int q = lp[k]; q < lp[k + 1]; q++) {
+				int j = li[q];
+				double x = w[j] / ux[up[j]];
+				w[j] = 0;
+				if (!(Math.abs(x) <= maxL)) return null;
+				lx[q] = x;
+				if (x != 0)
+					for (int t = up[j] + 1; t < up[j + 1]; t++)
+						w[ui[t]] -= x * ux[t];
+				lu.ops += up[j + 1] - up[j];
+			}
+			for (int t = up[k]; t < up[k + 1]; t++) {
+				int j = ui[t];
+				ux[t] = w[j];
+				w[j] = 0;
+			}
+			if (ux[up[k]] == 0) return null;
+		}
+		if (nB != bx.length) return null;
+		lu.bp[n] = nB;
+		lu.ops += lu.nonZeros();
+		return lu;
+	}
+
+	/**
+	 * @param params amount of parameter columns
+	 * @return whether factorizing equations of this structure is expected to take longer than the dense elimination of {@link MathUtil#solveMatrix(double[][])}
+	 */
+	public boolean slowerThanDense(int params) {
+		return RowCost * n + UpdateCost * ops > (long)n * n * (n / 2 + params);
+	}
+
+	/**
+	 * @return the elimination order used by this factorization, to be reused for other switch states.
+	 */
+	public Symbolic symbolic() {
+		return new Symbolic(n, colPerm, rowPerm);
+	}
+
+	/**
+	 * Analyzes the given equations to determine an elimination order and factorizes them.
+	 * @param mat equations
+	 * @param n amount of state variables
+	 * @return the factorization
+	 */
+	public static SparseLU analyze(SparseMatrix mat, int n) {
+		Elimination e = new Elimination(mat, n);
+		e.markowitz();
+		return e.finish(mat);
+	}
+
+	/**
+	 * Factorizes the given equations in the elimination order of a previous analysis, with row pivots chosen by threshold partial pivoting.
+	 * @param sym symbolic analysis
+	 * @param mat equations
+	 * @return the factorization
+	 */
+	public static SparseLU factor(Symbolic sym, SparseMatrix mat) {
+		Elimination e = new Elimination(mat, sym.n);
+		e.ordered(sym);
+		return e.finish(mat);
+	}
+
+	/**
+	 * Elimination order of columns and their preferred pivot rows.
+	 */
+	public static class Symbolic {
+
+		public final int n;
+		final int[] colOrder, rowPref;
+
+		Symbolic(int n, int[] colOrder, int[] rowPref) {
+			this.n = n;
+			this.colOrder = colOrder;
+			this.rowPref = rowPref;
+		}
+
+	}
+
+	/**
+	 * Right looking sparse gaussian elimination on a working copy of the state columns.
+	 */
+	private static class Elimination {
+
+		final int n;
+		final int[][] rc, cr;
+		/**position of each row element in its column's row list and of each column list entry in its row, so elements are found without searching */
+		final int[][] rq, cq;
+		final double[][] rv;
+		final int[] rl, cc, cl;
+		/**largest remaining element of each column, recomputed only after the column was modified */
+		final double[] max;
+		final boolean[] stale;
+		/**rows grouped into linked lists by their element count */
+		final int[] head, next, prev;
+		final int[] rowStep, colStep, rowPerm, colPerm;
+		/**position of each column in the current pivot row or -1, and the last row update that used each pivot row element */
+		final int[] pos, hit;
+		int stamp;
+		final int[][] lrow, urow;
+		final double[][] lval, uval;
+		final int[] ll;
+		int k;
+		long ops;
+
+		Elimination(SparseMatrix mat, int n) {
+			this.n = n;
+			rc = new int[n][];
+			rq = new int[n][];
+			rv = new double[n][];
+			rl = new int[n];
+			cc = new int[n];
+			cl = new int[n];
+			for (int i = 0; i < n; i++) {
+				int[] id = mat.idx[i];
+				int l = mat.len[i], m = 0;
+				rc[i] = new int[l + 4];
+				rq[i] = new int[l + 4];
+				rv[i] = new double[l + 4];
+				for (int j = 0; j < l; j++)
+					if (id[j] < n) {
+						cc[id[j]]++;
+						rc[i][m] = id[j];
+						rv[i][m++] = mat.val[i][j];
+					}
+				rl[i] = m;
+			}
+			cr = new int[n][];
+			cq = new int[n][];
+			for (int c = 0; c < n; c++) {
+				cr[c] = new int[cc[c] + 2];
+				cq[c] = new int[cc[c] + 2];
+			}
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < rl[i]; j++) {
+					int c = rc[i][j];
+					rq[i][j] = cl[c];
+					cq[c][cl[c]] = j;
+					cr[c][cl[c]++] = i;
+				}
+			max = new double[n];
+			stale = new boolean[n];
+			Arrays.fill(stale, true);
+			head = new int[n + 1];
+			next = new int[n];
+			prev = new int[n];
+			Arrays.fill(head, -1);
+			for (int i = 0; i < n; i++) link(i);
+			rowStep = new int[n];
+			colStep = new int[n];
+			pos = new int[n];
+			hit = new int[n];
+			Arrays.fill(rowStep, -1);
+			Arrays.fill(colStep, -1);
+			Arrays.fill(pos, -1);
+			rowPerm = new int[n];
+			colPerm = new int[n];
+			lrow = new int[n][];
+			lval = new double[n][];
+			ll = new int[n];
+			urow = new int[n][];
+			uval = new double[n][];
+		}
+
+		/**
+		 * eliminate in order of lowest Markowitz cost among the shortest rows
+		 */
+		void markowitz() {
+			while (k < n) {
+				int pr = -1, pc = -1, searched = 0;
+				long cost = Long.MAX_VALUE;
+				search: for (int cnt = 1; cnt <= n; cnt++)
+					for (int r = head[cnt]; r >= 0; r = next[r]) {
+						for (int j = 0; j < cnt; j++) {
+							double v = Math.abs(rv[r][j]);
+							int c = rc[r][j];
+							long x = (long)(cnt - 1) * (cc[c] - 1);
+							if (v == 0 || x >= cost || v < PivotThreshold * colMax(c)) continue;
+							cost = x; pr = r; pc = c;
+						}
+						if (++searched >= PivotSearch && pr >= 0 || cost == 0) break search;
+					}
+				if (pr < 0) return;
+				pivot(pr, pc);
+			}
+		}
+
+		/**
+		 * eliminate in the given column order, preferring the given pivot rows if numerically suitable
+		 */
+		void ordered(Symbolic sym) {
+			for (int i = 0; i < n; i++) {
+				int c = sym.colOrder[i], pr = -1, pref = sym.rowPref[i];
+				double max = colMax(c), v = 0, th = PivotThreshold * max;
+				if (max == 0) continue;
+				int[] col = cr[c], at = cq[c];
+				for (int q = 0; q < cl[c]; q++) {
+					int r = col[q];
+					if (rowStep[r] >= 0) continue;
+					double x = Math.abs(rv[r][at[q]]);
+					if (x < th) continue;
+					if (r == pref) {
+						pr = r;
+						break;
+					}
+					if (pr < 0 || rl[r] < rl[pr] || rl[r] == rl[pr] && x > v) {
+						pr = r;
+						v = x;
+					}
+				}
+				pivot(pr, c);
+			}
+		}
+
+		void pivot(int pr, int pc) {
+			rowStep[pr] = k;
+			colStep[pc] = k;
+			rowPerm[k] = pr;
+			colPerm[k] = pc;
+			unlink(pr);
+			int[] pcs = rc[pr];
+			double[] pvs = rv[pr];
+			int pl = rl[pr];
+			double a = 0;
+			int jp = 0;
+			for (int j = 0; j < pl; j++) {
+				int c = pcs[j];
+				cc[c]--;
+				stale[c] = true;
+				pos[c] = j;
+				if (c == pc) a = pvs[jp = j];
+			}
+			urow[k] = Arrays.copyOf(pcs, pl);
+			uval[k] = Arrays.copyOf(pvs, pl);
+			//eliminate the pivot column from all other rows
+			int[] col = cr[pc], at = cq[pc];
+			for (int q = 0; q < cl[pc]; q++) {
+				int r = col[q];
+				if (rowStep[r] >= 0) continue;
+				int[] ids = rc[r], rqs = rq[r];
+				double[] vals = rv[r];
+				int l = rl[r], i = at[q];
+				double x = vals[i] / a;
+				if (lrow[r] == null) {
+					lrow[r] = new int[4];
+					lval[r] = new double[4];
+				} else if (ll[r] == lrow[r].length) {
+					lrow[r] = Arrays.copyOf(lrow[r], ll[r] * 2);
+					lval[r] = Arrays.copyOf(lval[r], ll[r] * 2);
+				}
+				lrow[r][ll[r]] = k;
+				lval[r][ll[r]++] = x;
+				unlink(r);
+				ops += l + pl;
+				ids[i] = ids[--l];
+				vals[i] = vals[l];
+				cq[ids[i]][rqs[i] = rqs[l]] = i;
+				//update the elements the row shares with the pivot row, then append the fill-in for the others
+				int h = ++stamp;
+				hit[jp] = h;
+				for (int j = 0; j < l; j++) {
+					int s = pos[ids[j]];
+					if (s >= 0) {
+						vals[j] -= x * pvs[s];
+						hit[s] = h;
+					}
+				}
+				for (int j = 0; j < pl; j++) {
+					if (hit[j] == h) continue;
+					int c = pcs[j];
+					if (l == ids.length) {
+						rc[r] = ids = Arrays.copyOf(ids, l * 2);
+						rq[r] = rqs = Arrays.copyOf(rqs, l * 2);
+						rv[r] = vals = Arrays.copyOf(vals, l * 2);
+					}
+					if (cl[c] == cr[c].length) {
+						cr[c] = Arrays.copyOf(cr[c], cl[c] * 2);
+						cq[c] = Arrays.copyOf(cq[c], cl[c] * 2);
+					}
+					ids[l] = c;
+					rqs[l] = cl[c];
+					cq[c][cl[c]] = l;
+					vals[l++] = -x * pvs[j];
+					cr[c][cl[c]++] = r;
+					cc[c]++;
+				}
+				rl[r] = l;
+				link(r);
+			}
+			for (int j = 0; j < pl; j++) pos[pcs[j]] = -1;
+			k++;
+		}
+
+		SparseLU finish(SparseMatrix mat) {
+			final int rank = k;
+			//remaining unsolvable rows and columns
+			for (int i = 0, j = 0; k < n; k++) {
+				while (rowStep[i] >= 0) i++;
+				while (colStep[j] >= 0) j++;
+				rowStep[i] = k;
+				colStep[j] = k;
+				rowPerm[k] = i;
+				colPerm[k] = j;
+			}
+			int nl = 0, nu = 0, nB = 0;
+			for (k = 0; k < n; k++) {
+				int r = rowPerm[k];
+				if (k < rank) {
+					nl += ll[r];
+					nu += urow[k].length;
+					int[] id = mat.idx[r];
+					for (int j = mat.len[r] - 1; j >= 0; j--)
+						if (id[j] >= n) nB++;
+				} else nu++;
+			}
+			SparseLU lu = new SparseLU(n, rank, rowPerm, colPerm, new int[n + 1], new int[nl], new int[n + 1], new int[nu], nB);
+			nl = 0; nu = 0; nB = 0;
+			for (k = 0; k < n; k++) {
+				int r = rowPerm[k];
+				lu.lp[k] = nl;
+				lu.up[k] = nu;
+				lu.bp[k] = nB;
+				lu.ui[nu++] = k;
+				if (k >= rank) {
+					lu.ux[nu - 1] = 1;
+					continue;
+				}
+				for (int j = 0; j < ll[r]; j++) {
+					lu.li[nl] = lrow[r][j];
+					lu.lx[nl++] = lval[r][j];
+				}
+				int[] cs = urow[k];
+				for (int j = 0; j < cs.length; j++) {
+					int s = colStep[cs[j]];
+					if (s == k) lu.ux[lu.up[k]] = uval[k][j];
+					else {
+						lu.ui[nu] = s;
+						lu.ux[nu++] = uval[k][j];
+					}
+				}
+				int[] id = mat.idx[r];
+				for (int j = 0; j < mat.len[r]; j++)
+					if (id[j] >= n) {
+						lu.bi[nB] = id[j] - n;
+						lu.bx[nB++] = mat.val[r][j];
+					}
+			}
+			lu.lp[n] = nl;
+			lu.up[n] = nu;
+			lu.bp[n] = nB;
+			lu.ops = ops + lu.nonZeros();
+			return lu;
+		}
+
+		private double colMax(int c) {
+			if (!stale[c]) return max[c];
+			double m = 0;
+			int[] col = cr[c], at = cq[c];
+			for (int q = 0; q < cl[c]; q++) {
+				int r = col[q];
+				if (rowStep[r] >= 0) continue;
+				double x = Math.abs(rv[r][at[q]]);
+				if (x > m) m = x;
+			}
+			stale[c] = false;
+			return max[c] = m;
+		}
+
+		private void link(int r) {
+			int cnt = rl[r], h = head[cnt];
+			next[r] = h;
+			prev[r] = -1;
+			if (h >= 0) prev[h] = r;
+			head[cnt] = r;
+		}
+
+		private void unlink(int r) {
+			int p = prev[r], x = next[r];
+			if (p >= 0) next[p] = x;
+			else head[rl[r]] = x;
+			if (x >= 0) prev[x] = p;
+		}
+
+	}
+
+}
@@ -0,0 +1,142 @@
+package electricity;
+
+import java.util.Arrays;
+
+/**
+ * Row wise sparse storage of the linear equation system of a circuit.<br>
+ * Like in the dense representation, elements at column {@code 0 <= index < states} refer to state variables and {@code index >= states} refer to fixed parameters.
+ * Since almost every equation only has 2 - 4 non zero elements, rows are stored as short lists of column indices and values.
+ */
+public class SparseMatrix {
+
+	public final int rows, cols;
+	final int[][] idx;
+	final double[][] val;
+	final int[] len;
+
+	/**
+	 * creates a new empty sparse matrix
+	 * @param rows amount of equations
+	 * @param cols amount of state variables + parameters
+	 */
+	public SparseMatrix(int rows, int cols) {
+		this.rows = rows;
+		this.cols = cols;
+		this.idx = new int[rows][];
+		this.val = new double[rows][];
+		this.len = new int[rows];
+	}
+
+	/**
+	 * sets the element at the given position (replacing its previous value)
+	 * @param row equation index
+	 * @param col variable or parameter index
+	 * @param x value
+	 */
+	public void set(int row, int col, double x) {
+		int[] id = idx[row];
+		int n = len[row];
+		for (int i = 0; i < n; i++)
+			if (id[i] == col) {
+				val[row][i] = x;
+				return;
+			}
+		if (id == null) {
+			idx[row] = id = new int[4];
+			val[row] = new double[4];
+		} else if (n == id.length) {
+			idx[row] = id = Arrays.copyOf(id, n * 2);
+			val[row] = Arrays.copyOf(val[row], n * 2);
+		}
+		id[n] = col;
+		val[row][n] = x;
+		len[row] = n + 1;
+	}
+
+	/**
+	 * @param row equation index
+	 * @param col variable or parameter index
+	 * @return the element at the given position
+	 */
+	public double get(int row, int col) {
+		int[] id = idx[row];
+		for (int i = len[row] - 1; i >= 0; i--)
+			if (id[i] == col) return val[row][i];
+		return 0;
+	}
+
+	/**
+	 * @return the equations as dense matrix
+	 */
+	public double[][] toArray() {
+		double[][] mat = new double[rows][cols];
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < len[i]; j++)
+				mat[i][idx[i][j]] = val[i][j];
+		return mat;
+	}
+
+	/**
+	 * removes all elements while keeping the allocated row storage
+	 */
+	public void clear() {
+		Arrays.fill(len, 0);
+	}
+
+	/**
+	 * checks whether the given state variables solve this equation system
+	 * @param x state variables
+	 * @param values parameter values
+	 * @param states first index of parameter columns
+	 * @param tolerance tolerated residual of each equation relative to its coefficients times the largest state variable plus its parameter terms
+	 * @return true if all equations are satisfied within tolerance
+	 */
+	public boolean solvedBy(double[] x, double[] values, int states, double tolerance) {
+		double max = 0;
+		for (int i = 0; i < states; i++)
+			max = Math.max(max, Math.abs(x[i]));
+		for (int i = 0; i < rows; i++) {
+			int[] id = idx[i];
+			double[] v = val[i];
+			double r = 0, m = 0;
+			for (int j = len[i] - 1; j >= 0; j--) {
+				int c = id[j];
+				if (c < states) {
+					r += v[j] * x[c];
+					m += Math.abs(v[j]) * max;
+				} else {
+					double y = v[j] * values[c - states];
+					r -= y;
+					m += Math.abs(y);
+				}
+			}
+			if (!(Math.abs(r) <= tolerance * m)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return a 64 bit hash over the structure and values of all elements, in order of their assembly
+	 */
+	public long hash() {
+		long h = (long)rows * 31 + cols;
+		for (int i = 0; i < rows; i++) {
+			int[] id = idx[i];
+			double[] v = val[i];
+			h = h * 0x9E3779B97F4A7C15L + len[i];
+			for (int j = 0; j < len[i]; j++)
+				h = (h ^ id[j]) * 0xD6E8FEB86659FD93L + Double.doubleToLongBits(v[j]);
+		}
+		return h ^ h >>> 29;
+	}
+
+	/**
+	 * @return total amount of stored elements
+	 */
+	public int nonZeros() {
+		int n = 0;
+		for (int l : len) n += l;
+		return n;
+	}
+
+}
@@ -0,0 +1,75 @@
+package electricity;
+
+/**
+ * Adaptive time stepping of all {@link Circuit#circuits}: steps grow while the integration error estimated by capacitors and inductors stays small
+ * and shrink before diodes or transistors are expected to switch as well as when and right after they did.<br>
+ * Circuits are ticked one after another, because a switch change in any of them shortens the current step for all.<br>
+ * Components update their state in place, so steps can't be rejected and repeated. Instead each error estimate controls the size of the following step.
+ */
+public class Stepper {
+
+	/**magnitude below which errors are taken as absolute instead of relative */
+	static final double ErrorFloor = 1e-6;
+	/**limits of how much the step size may change at once */
+	static final double MaxGrowth = 2.0, MaxShrink = 0.2;
+	/**safety factor on step sizes estimated from errors, and how far to step past an expected switch change */
+	static final double Safety = 0.9, Overshoot = 1.05;
+
+	/**maximum allowed relative error per step */
+	public final double tolerance;
+	/**[s] step size limits */
+	public final double minStep, maxStep;
+	private double step, time;
+	private long steps;
+
+	/**
+	 * @param tolerance maximum allowed relative error per step
+	 * @param minStep [s] smallest step, used to resolve switching
+	 * @param maxStep [s] largest step
+	 */
+	public Stepper(double tolerance, double minStep, double maxStep) {
+		if (!(tolerance > 0 && minStep > 0 && maxStep >= minStep)) throw new IllegalArgumentException("invalid step settings");
+		this.tolerance = tolerance;
+		this.minStep = minStep;
+		this.maxStep = maxStep;
+		this.step = minStep;
+	}
+
+	/**@return [s] simulated time */
+	public double time() {return time;}
+	/**@return amount of steps done */
+	public long steps() {return steps;}
+
+	/**
+	 * simulates the given time span in steps of adaptive size
+	 * @param duration [s] time to simulate
+	 */
+	public void simulate(double duration) {
+		double end = time + duration;
+		while (end - time > minStep * 1e-3) {
+			double dt = Math.min(step, end - time);
+			for (Circuit c : Circuit.circuits) {
+				c.error = 0;
+				c.horizon = Double.POSITIVE_INFINITY;
+			}
+			dt = Circuit.step(dt, minStep);
+			time += dt;
+			steps++;
+			double err = 0, horizon = Double.POSITIVE_INFINITY;
+			for (Circuit c : Circuit.circuits) {
+				if (c.error > err) err = c.error;
+				if (c.horizon < horizon) horizon = c.horizon;
+			}
+			//the error of a step with constant rates grows with the square of its size
+			double f = err > 0 ? Math.max(MaxShrink, Math.min(MaxGrowth, Safety * Math.sqrt(tolerance / err))) : MaxGrowth;
+			//a step shortened to end the time span doesn't tell that larger ones are fine
+			double next = dt < step && f >= 1 ? step : dt * f;
+			if (horizon * Overshoot < next) next = horizon * Overshoot;
+			step = Math.max(minStep, Math.min(maxStep, next));
+			//companion models need the equations of each step size, so only use power of two multiples of the smallest
+			if (Circuit.integration != Circuit.Integration.EXPLICIT)
+				step = Math.max(minStep, Math.min(maxStep, minStep * Math.scalb(1.0, Math.getExponent(step / minStep))));
+		}
+	}
+
+}
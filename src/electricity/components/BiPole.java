@@ -40,4 +40,18 @@ public abstract class BiPole extends Component {
 		return new Pin[]{A, B};
 	}
 
+	@Override
+	public int pinCount() {
+		return 2;
+	}
+
+	@Override
+	public Pin pin(int i) {
+		switch(i) {
+		case 0: return A;
+		case 1: return B;
+		default: throw new IndexOutOfBoundsException();
+		}
+	}
+
 }
@@ -1,11 +1,26 @@
 package electricity.components;
 
-import electricity.INotify;
+import java.util.Arrays;
 
-public class Capacitor extends VoltageSource implements INotify {
+import electricity.Circuit;
+import electricity.Circuit.Integration;
+import electricity.Group;
+import electricity.IGroupable;
+import electricity.IReactive;
+import electricity.SparseMatrix;
+import static electricity.IResistorMergable.*;
 
-	private final double C;
-	private double E;
+public class Capacitor extends VoltageSource implements IReactive, IGroupable {
+
+	/**[F] capacity */
+	public final double C;
+	private double E, lastI;
+	/**parameter holding the last current for the trapezoidal rule or -1 */
+	private int hid = -1;
+	private boolean companion;
+	/**the group holding its state while grouped or null */
+	private Bank bank;
+	private int slot;
 
 	public Capacitor(double U0, double C) {
 		super(U0);
@@ -13,19 +28,90 @@ public class Capacitor extends VoltageSource implements INotify {
 		this.E = U0 * U0 * C / 2;
 	}
 
+	@Override
+	public void setEquations(SparseMatrix mat, int states) {
+		super.setEquations(mat, states);
+		if (!companion) return;
+		//U_B - U_A = U - h/C * I for backward Euler, U - h/2C * (I + lastI) for the trapezoidal rule
+		boolean euler = circuit.euler();
+		double k = circuit.stepLength() / (euler ? C : 2.0 * C);
+		mat.set(id, id, Rc(A) + k);
+		if (hid >= 0) mat.set(id, hid + states, euler ? 0 : -k);
+	}
+
+	@Override
+	public void setValue(double[] vec) {
+		super.setValue(vec);
+		if (hid >= 0) vec[hid] = lastI;
+	}
+
 	@Override
 	public void update(double[] states, double dt) {
-		double dQ = states[id] * dt;
+		double I = states[id], dQ = I * dt;
+		//the step assumes constant current, so its error grows with the change of current
+		circuit.reportError(0.5 * Math.abs(I - lastI) * dt / C, U);
+		if (companion) {
+			setState(U - (circuit.euler() ? dQ : 0.5 * (I + lastI) * dt) / C, 0);
+			lastI = I;
+			circuit.setValue(cid, U);
+			if (hid >= 0) circuit.setValue(hid, I);
+			return;
+		}
+		lastI = I;
 		E -= dQ * U;
 		dQ /= C * 2.0;
 		U = (E <= 0 ? 0 : Math.copySign(Math.sqrt(2.0 * E / C), U - dQ)) - dQ;
 		circuit.setValue(cid, U);
 	}
 
+	@Override
+	public int state() {
+		return cid;
+	}
+
+	@Override
+	public double rate(double[] states) {
+		return -states[id] / C;
+	}
+
+	@Override
+	public void setState(double x, double dx) {
+		//update() keeps the energy at the voltage half a tick earlier
+		double u = x - 0.5 * dx;
+		if (bank != null) {
+			bank.U[slot] = x;
+			bank.E[slot] = u * u * C / 2;
+			return;
+		}
+		U = x;
+		E = u * u * C / 2;
+	}
+
+	@Override
+	public double voltage() {
+		return bank != null ? bank.U[slot] : U;
+	}
+
+	@Override
+	public Group newGroup() {
+		//subclasses may update differently
+		return companion || getClass() != Capacitor.class ? null : new Bank(circuit);
+	}
+
 	@Override
 	public int init() {
+		if (bank != null) {
+			U = bank.U[slot];
+			E = bank.E[slot];
+			lastI = bank.lastI[slot];
+			bank = null;
+		}
 		circuit.notifier.add(this);
-		return super.init();
+		Integration mode = circuit.integration();
+		if (companion = mode != Integration.EXPLICIT) circuit.useStep();
+		int n = super.init();
+		hid = mode == Integration.TRAPEZOIDAL ? circuit.addPar(this) : -1;
+		return n;
 	}
 
 	@Override
@@ -33,4 +119,51 @@ public class Capacitor extends VoltageSource implements INotify {
 		return super.toString() + String.format(" C=%.3gF", C);
 	}
 
+	/**
+	 * Capacitors of a circuit integrated explicitly, updated in one loop
+	 */
+	static class Bank extends Group {
+
+		final Circuit circuit;
+		/**[F] capacities, [J] energies, [V] voltages and [A] currents of the last tick */
+		double[] C = new double[8], E = new double[8], U = new double[8], lastI = new double[8];
+		/**state index of the current and parameter index of the voltage */
+		int[] id = new int[8], cid = new int[8];
+
+		Bank(Circuit circuit) {
+			this.circuit = circuit;
+		}
+
+		@Override
+		protected void add(IGroupable member) {
+			Capacitor c = (Capacitor)member;
+			if (size == id.length) {
+				int n = size * 2;
+				C = Arrays.copyOf(C, n); E = Arrays.copyOf(E, n); U = Arrays.copyOf(U, n); lastI = Arrays.copyOf(lastI, n);
+				id = Arrays.copyOf(id, n); cid = Arrays.copyOf(cid, n);
+			}
+			C[size] = c.C; E[size] = c.E; U[size] = c.U; lastI[size] = c.lastI;
+			id[size] = c.id; cid[size] = c.cid;
+			c.bank = this;
+			c.slot = size++;
+		}
+
+		@Override
+		public void update(double[] states, double dt) {
+			Circuit circuit = this.circuit;
+			double[] C = this.C, E = this.E, U = this.U, lastI = this.lastI;
+			int[] id = this.id, cid = this.cid;
+			//same as Capacitor.update()
+			for (int k = 0, n = size; k < n; k++) {
+				double I = states[id[k]], dQ = I * dt, c = C[k], u = U[k];
+				circuit.reportError(0.5 * Math.abs(I - lastI[k]) * dt / c, u);
+				lastI[k] = I;
+				double e = E[k] -= dQ * u;
+				dQ /= c * 2.0;
+				circuit.setValue(cid[k], U[k] = (e <= 0 ? 0 : Math.copySign(Math.sqrt(2.0 * e / c), u - dQ)) - dQ);
+			}
+		}
+
+	}
+
 }
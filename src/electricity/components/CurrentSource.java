@@ -1,6 +1,7 @@
 package electricity.components;
 
 import electricity.Parameter;
+import electricity.SparseMatrix;
 
 /**
  * Implements an electric component that provides a fixed electric current flowing from pin A to pin B
@@ -20,10 +21,9 @@ public class CurrentSource extends BiPole implements Parameter {
 	}
 
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		double[] row = mat[id];
-		row[cid + states] = 1;
-		row[id] = 1;
+	public void setEquations(SparseMatrix mat, int states) {
+		mat.set(id, cid + states, 1);
+		mat.set(id, id, 1);
 	}
 
 	@Override
@@ -31,6 +31,11 @@ public class CurrentSource extends BiPole implements Parameter {
 		vec[cid] = I;
 	}
 
+	/**@return [A] the current it currently provides */
+	public double current() {
+		return I;
+	}
+
 	@Override
 	public int init() {
 		this.cid = circuit.addPar(this);
@@ -39,7 +44,7 @@ public class CurrentSource extends BiPole implements Parameter {
 
 	@Override
 	public String toString() {
-		return super.toString() + String.format(" I=%.3gA", I);
+		return super.toString() + String.format(" I=%.3gA", current());
 	}
 
 }
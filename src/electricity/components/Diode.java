@@ -1,37 +1,64 @@
 package electricity.components;
 
-import electricity.INotify;
+import java.util.Arrays;
+
+import electricity.Circuit;
+import electricity.Group;
+import electricity.IGroupable;
 import electricity.IResistorMergable;
+import electricity.SparseMatrix;
 import static electricity.MathUtil.*;
 import static electricity.IResistorMergable.*;
 
-public class Diode extends BiPole implements INotify, IResistorMergable {
+public class Diode extends BiPole implements IGroupable, IResistorMergable {
 
 	public static final double PassPotential = 0.7;
 	protected int swId, cst;
 	protected boolean transmit;
+	private double lastI;
+	/**the group holding its state while grouped or null */
+	private Bank bank;
+	private int slot;
 
 	public Diode() {
 		this.transmit = false;
 	}
 
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		double[] row = mat[id];
-		row[A.Id_U] = -1.0;
-		row[B.Id_U] = 1.0;
-		row[id] = (transmit ? PassResistance : BlockResistance) + Rc(A);
-		row[states + cst] = -PassPotential;
+	public void setEquations(SparseMatrix mat, int states) {
+		mat.set(id, A.Id_U, -1.0);
+		mat.set(id, B.Id_U, 1.0);
+		mat.set(id, id, (transmit ? PassResistance : BlockResistance) + Rc(A));
+		mat.set(id, states + cst, -PassPotential);
 	}
 
 	@Override
 	public void update(double[] states, double dt) {
-		transmit = states[id] > 0;
+		double I = states[id];
+		transmit = I > 0;
+		//linear extrapolation of when the current crosses zero
+		if (I != lastI && (I > 0 ^ I > lastI)) circuit.reportEvent(I / (lastI - I) * dt);
+		lastI = I;
 		circuit.setSwitch(swId, transmit);
 	}
 
+	@Override
+	public int[] reads() {
+		return new int[] {id};
+	}
+
+	@Override
+	public Group newGroup() {
+		//subclasses may update differently
+		return getClass() != Diode.class ? null : new Bank(circuit);
+	}
+
 	@Override
 	public int init() {
+		if (bank != null) {
+			lastI = bank.lastI[slot];
+			bank = null;
+		}
 		this.swId = circuit.nextSwitch();
 		this.cst = circuit.getConstant();
 		circuit.preNotifier.add(this);
@@ -42,4 +69,59 @@ public class Diode extends BiPole implements INotify, IResistorMergable {
 	@Override
 	public void updateResistor() {}
 
+	/**
+	 * Diodes of a circuit, updated in one loop
+	 */
+	static class Bank extends Group {
+
+		final Circuit circuit;
+		/**[A] currents of the last tick */
+		double[] lastI = new double[8];
+		/**state index of the current and switch index */
+		int[] id = new int[8], swId = new int[8];
+		/**whether each one transmits, so the members are only touched when that changes */
+		boolean[] transmit = new boolean[8];
+		Diode[] members = new Diode[8];
+
+		Bank(Circuit circuit) {
+			this.circuit = circuit;
+		}
+
+		@Override
+		protected void add(IGroupable member) {
+			Diode d = (Diode)member;
+			if (size == id.length) {
+				int n = size * 2;
+				lastI = Arrays.copyOf(lastI, n);
+				id = Arrays.copyOf(id, n); swId = Arrays.copyOf(swId, n);
+				transmit = Arrays.copyOf(transmit, n);
+				members = Arrays.copyOf(members, n);
+			}
+			lastI[size] = d.lastI; id[size] = d.id; swId[size] = d.swId; transmit[size] = d.transmit;
+			members[size] = d;
+			d.bank = this;
+			d.slot = size++;
+		}
+
+		@Override
+		public void update(double[] states, double dt) {
+			Circuit circuit = this.circuit;
+			double[] lastI = this.lastI;
+			int[] id = this.id;
+			boolean[] transmit = this.transmit;
+			//same as Diode.update()
+			for (int k = 0, n = size; k < n; k++) {
+				double I = states[id[k]], l = lastI[k];
+				boolean t = I > 0;
+				if (I != l && (t ^ I > l)) circuit.reportEvent(I / (l - I) * dt);
+				lastI[k] = I;
+				if (t != transmit[k]) {
+					transmit[k] = members[k].transmit = t;
+					circuit.setSwitch(swId[k], t);
+				}
+			}
+		}
+
+	}
+
 }
@@ -1,6 +1,7 @@
 package electricity.components;
 
 import electricity.Pin;
+import electricity.SparseMatrix;
 
 /**
  * A type of Junction that sets all connected pins to 0V ground level.<br>
@@ -18,8 +19,8 @@ public class Ground extends Junction {
 	}
 
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		mat[id][id] = 1.0;
+	public void setEquations(SparseMatrix mat, int states) {
+		mat.set(id, id, 1.0);
 	}
 
 }
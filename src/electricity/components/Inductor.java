@@ -1,11 +1,25 @@
 package electricity.components;
 
-import electricity.INotify;
+import java.util.Arrays;
 
-public class Inductor extends CurrentSource implements INotify {
+import electricity.Circuit;
+import electricity.Circuit.Integration;
+import electricity.Group;
+import electricity.IGroupable;
+import electricity.IReactive;
+import electricity.SparseMatrix;
 
-	private final double L;
-	private double E;
+public class Inductor extends CurrentSource implements IReactive, IGroupable {
+
+	/**[H] inductivity */
+	public final double L;
+	private double E, lastU;
+	/**parameter holding the last voltage for the trapezoidal rule or -1 */
+	private int hid = -1;
+	private boolean companion;
+	/**the group holding its state while grouped or null */
+	private Bank bank;
+	private int slot;
 
 	public Inductor(double I0, double L) {
 		super(I0);
@@ -13,19 +27,91 @@ public class Inductor extends CurrentSource implements INotify {
 		this.E = 0.5 * I0 * I0 * L;
 	}
 
+	@Override
+	public void setEquations(SparseMatrix mat, int states) {
+		super.setEquations(mat, states);
+		if (!companion) return;
+		//I = I0 - h/L * U for backward Euler, I0 - h/2L * (U + lastU) for the trapezoidal rule
+		boolean euler = circuit.euler();
+		double k = circuit.stepLength() / (euler ? L : 2.0 * L);
+		mat.set(id, A.Id_U, -k);
+		mat.set(id, B.Id_U, k);
+		if (hid >= 0) mat.set(id, hid + states, euler ? 0 : -k);
+	}
+
+	@Override
+	public void setValue(double[] vec) {
+		super.setValue(vec);
+		if (hid >= 0) vec[hid] = lastU;
+	}
+
 	@Override
 	public void update(double[] states, double dt) {
-		double dU = (states[B.Id_U] - states[A.Id_U]) * dt;
+		double U = states[B.Id_U] - states[A.Id_U], dU = U * dt;
+		//the step assumes constant voltage, so its error grows with the change of voltage
+		circuit.reportError(0.5 * Math.abs(U - lastU) * dt / L, I);
+		if (companion) {
+			setState(states[id], 0);
+			lastU = U;
+			circuit.setValue(cid, I);
+			if (hid >= 0) circuit.setValue(hid, U);
+			return;
+		}
+		lastU = U;
 		E -= dU * I;
 		dU /= L * 2.0;
 		I = (E <= 0 ? 0 : Math.copySign(Math.sqrt(2.0 * E / L), I - dU)) - dU;
 		circuit.setValue(cid, I);
 	}
 
+	@Override
+	public int state() {
+		return cid;
+	}
+
+	@Override
+	public double rate(double[] states) {
+		return (states[A.Id_U] - states[B.Id_U]) / L;
+	}
+
+	@Override
+	public void setState(double x, double dx) {
+		//update() keeps the energy at the current half a tick earlier
+		double i = x - 0.5 * dx;
+		if (bank != null) {
+			bank.I[slot] = x;
+			bank.E[slot] = 0.5 * i * i * L;
+			return;
+		}
+		I = x;
+		E = 0.5 * i * i * L;
+	}
+
+	@Override
+	public double current() {
+		return bank != null ? bank.I[slot] : I;
+	}
+
+	@Override
+	public Group newGroup() {
+		//subclasses may update differently
+		return companion || getClass() != Inductor.class ? null : new Bank(circuit);
+	}
+
 	@Override
 	public int init() {
+		if (bank != null) {
+			I = bank.I[slot];
+			E = bank.E[slot];
+			lastU = bank.lastU[slot];
+			bank = null;
+		}
 		circuit.notifier.add(this);
-		return super.init();
+		Integration mode = circuit.integration();
+		if (companion = mode != Integration.EXPLICIT) circuit.useStep();
+		int n = super.init();
+		hid = mode == Integration.TRAPEZOIDAL ? circuit.addPar(this) : -1;
+		return n;
 	}
 
 	@Override
@@ -33,4 +119,51 @@ public class Inductor extends CurrentSource implements INotify {
 		return super.toString() + String.format(" L=%.3gH", L);
 	}
 
+	/**
+	 * Inductors of a circuit integrated explicitly, updated in one loop
+	 */
+	static class Bank extends Group {
+
+		final Circuit circuit;
+		/**[H] inductivities, [J] energies, [A] currents and [V] voltages of the last tick */
+		double[] L = new double[8], E = new double[8], I = new double[8], lastU = new double[8];
+		/**state indices of the pin voltages and parameter index of the current */
+		int[] a = new int[8], b = new int[8], cid = new int[8];
+
+		Bank(Circuit circuit) {
+			this.circuit = circuit;
+		}
+
+		@Override
+		protected void add(IGroupable member) {
+			Inductor l = (Inductor)member;
+			if (size == cid.length) {
+				int n = size * 2;
+				L = Arrays.copyOf(L, n); E = Arrays.copyOf(E, n); I = Arrays.copyOf(I, n); lastU = Arrays.copyOf(lastU, n);
+				a = Arrays.copyOf(a, n); b = Arrays.copyOf(b, n); cid = Arrays.copyOf(cid, n);
+			}
+			L[size] = l.L; E[size] = l.E; I[size] = l.I; lastU[size] = l.lastU;
+			a[size] = l.A.Id_U; b[size] = l.B.Id_U; cid[size] = l.cid;
+			l.bank = this;
+			l.slot = size++;
+		}
+
+		@Override
+		public void update(double[] states, double dt) {
+			Circuit circuit = this.circuit;
+			double[] L = this.L, E = this.E, I = this.I, lastU = this.lastU;
+			int[] a = this.a, b = this.b, cid = this.cid;
+			//same as Inductor.update()
+			for (int k = 0, n = size; k < n; k++) {
+				double U = states[b[k]] - states[a[k]], dU = U * dt, l = L[k], i = I[k];
+				circuit.reportError(0.5 * Math.abs(U - lastU[k]) * dt / l, i);
+				lastU[k] = U;
+				double e = E[k] -= dU * i;
+				dU /= l * 2.0;
+				circuit.setValue(cid[k], I[k] = (e <= 0 ? 0 : Math.copySign(Math.sqrt(2.0 * e / l), i - dU)) - dU);
+			}
+		}
+
+	}
+
 }
@@ -2,6 +2,7 @@ package electricity.components;
 
 import electricity.Component;
 import electricity.Pin;
+import electricity.SparseMatrix;
 
 /**
  * Used to connect the pins of electric parts by setting them to equal voltage level and ensuring that in- and outgoing currents are equal.
@@ -23,10 +24,9 @@ public class Junction extends Component {
 	}
 
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		double[] row = mat[id];
+	public void setEquations(SparseMatrix mat, int states) {
 		for(Pin pin : pins)
-			row[pin.id_I] = pin.dir ? 1.0 : -1.0;
+			mat.set(id, pin.id_I, pin.dir ? 1.0 : -1.0);
 	}
 
 	@Override
@@ -57,6 +57,16 @@ public class Junction extends Component {
 		return pins;
 	}
 
+	@Override
+	public int pinCount() {
+		return pins.length;
+	}
+
+	@Override
+	public Pin pin(int i) {
+		return pins[i];
+	}
+
 	@Override
 	public void swapPin(Pin p) {}
 
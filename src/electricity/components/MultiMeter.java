@@ -4,6 +4,7 @@ import java.util.function.DoubleConsumer;
 
 import electricity.INotify;
 import electricity.IResistorMergable;
+import electricity.SparseMatrix;
 import static electricity.MathUtil.*;
 import static electricity.IResistorMergable.*;
 
@@ -12,33 +13,66 @@ public class MultiMeter extends BiPole implements INotify, IResistorMergable {
 	private Unit unit;
 	private final DoubleConsumer reader;
 	private double x;
+	/**[s] output sample interval for ticks of varying length (0 to output once per tick), time since the last output and the previous value */
+	private double period, phase, last = Double.NaN;
 
 	public MultiMeter(Unit unit, DoubleConsumer reader) {
 		this.reader = reader;
 		this.unit = unit;
 	}
 
+	public Unit unit() {
+		return unit;
+	}
+
 	public void reset() {
 		x = 0;
 	}
 
+	/**
+	 * makes this meter output samples at a fixed rate, linearly interpolated between ticks of varying length
+	 * @param period [s] output sample interval or 0 to output the value of each tick
+	 */
+	public void resample(double period) {
+		this.period = period;
+		phase = 0;
+		last = Double.NaN;
+	}
+
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		double[] row = mat[id];
-		row[id] = (unit.highImpedance ? BlockResistance : PassResistance) + Rc(A);
-		row[A.Id_U] = -1.0;
-		row[B.Id_U] = 1.0;
+	public void setEquations(SparseMatrix mat, int states) {
+		mat.set(id, id, (unit.highImpedance ? BlockResistance : PassResistance) + Rc(A));
+		mat.set(id, A.Id_U, -1.0);
+		mat.set(id, B.Id_U, 1.0);
 	}
 
 	@Override
 	public void update(double[] states, double dt) {
 		if (unit == null) return;
-		double I = states[id];
+		double I = states[id], v;
 		switch(unit) {
-		case Ampere: reader.accept(I); break;
-		case Volt: reader.accept(I * BlockResistance); break;
-		case Coulomb: reader.accept(x += I * dt); break;
+		case Ampere: v = I; break;
+		case Volt: v = I * BlockResistance; break;
+		case Coulomb: v = x += I * dt; break;
+		default: return;
+		}
+		if (period <= 0) {
+			reader.accept(v);
+			return;
 		}
+		if (Double.isNaN(last)) last = v;
+		//output all sample times within this tick, with some tolerance for rounding errors of the accumulated time
+		phase += dt;
+		while (phase >= period * (1.0 - 1e-9)) {
+			phase -= period;
+			reader.accept(v - (v - last) * Math.max(phase, 0) / dt);
+		}
+		last = v;
+	}
+
+	@Override
+	public int[] reads() {
+		return new int[] {id};
 	}
 
 	@Override
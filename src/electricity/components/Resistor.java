@@ -1,6 +1,7 @@
 package electricity.components;
 
 import electricity.IResistorMergable;
+import electricity.SparseMatrix;
 import static electricity.IResistorMergable.*;
 
 /**
@@ -22,11 +23,10 @@ public class Resistor extends BiPole implements IResistorMergable {
 	}
 
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		double[] row = mat[id];
-		row[id] = R + Rc(A);
-		row[A.Id_U] = -1.0;
-		row[B.Id_U] = 1.0;
+	public void setEquations(SparseMatrix mat, int states) {
+		mat.set(id, id, R + Rc(A));
+		mat.set(id, A.Id_U, -1.0);
+		mat.set(id, B.Id_U, 1.0);
 	}
 
 	@Override
@@ -4,6 +4,7 @@ import electricity.Component;
 import electricity.INotify;
 import electricity.IResistorMergable;
 import electricity.Pin;
+import electricity.SparseMatrix;
 import static electricity.MathUtil.*;
 import static electricity.IResistorMergable.*;
 
@@ -21,7 +22,10 @@ public class Transistor extends Component implements INotify, IResistorMergable
 	/**1: passBE, 2: passBC */
 	protected byte state;
 	public Pin E1, E2, C1, C2;
+	/**normal and inverse current amplification factors */
+	public final double Xn, Xi;
 	private final double Xn_, Xi_;
+	private double lastBe, lastBc;
 
 	/**
 	 * Creates a new Transistor instance with given amplification factors
@@ -33,6 +37,8 @@ public class Transistor extends Component implements INotify, IResistorMergable
 		E2 = new Pin(E1);
 		C1 = new Pin(this);
 		C2 = new Pin(C1);
+		this.Xn = Xn;
+		this.Xi = Xi;
 		this.Xn_ = 1.0 - 1.0 / Xn;
 		this.Xi_ = 1.0 - 1.0 / Xi;
 	}
@@ -56,44 +62,52 @@ public class Transistor extends Component implements INotify, IResistorMergable
 	}
 
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		double[] rowE = mat[id], rowC = mat[idC];
+	public void setEquations(SparseMatrix mat, int states) {
 		int icst = cst + states;
 		double R = PassResistance;
+		//all states write the same set of elements, so that the factorization pattern stays reusable
+		mat.set(id, E1.Id_U, 0);
+		mat.set(id, E2.Id_U, 0);
+		mat.set(id, idC, 0);
+		mat.set(id, icst, 0);
+		mat.set(idC, C1.Id_U, 0);
+		mat.set(idC, C2.Id_U, 0);
+		mat.set(idC, id, 0);
+		mat.set(idC, icst, 0);
 		switch (state) {
 		case 1: //amplification
 			// Ube - Ud = Ibe * (Rpass + Re)
-			rowE[E1.Id_U] = 1;
-			rowE[E2.Id_U] = -1;
-			rowE[id] = -R - Rc(E1);
-			rowE[icst] = PassPotential;
+			mat.set(id, E1.Id_U, 1);
+			mat.set(id, E2.Id_U, -1);
+			mat.set(id, id, -R - Rc(E1));
+			mat.set(id, icst, PassPotential);
 			// -Ibc = Xn * (Ibe + Ibc)
-			rowC[id] = Xn_;
-			rowC[idC] = 1;
+			mat.set(idC, id, Xn_);
+			mat.set(idC, idC, 1);
 			break;
 		case 2: //inverse amplification
 			// -Ibe = Xi * (Ibe + Ibc)
-			rowE[id] = 1;
-			rowE[idC] = Xi_;
+			mat.set(id, id, 1);
+			mat.set(id, idC, Xi_);
 			// Ubc - Ud = Ibc * (Rpass + Rc)
-			rowC[C1.Id_U] = 1;
-			rowC[C2.Id_U] = -1;
-			rowC[idC] = -R - Rc(C1);
-			rowC[icst] = PassPotential;
+			mat.set(idC, C1.Id_U, 1);
+			mat.set(idC, C2.Id_U, -1);
+			mat.set(idC, idC, -R - Rc(C1));
+			mat.set(idC, icst, PassPotential);
 			break;
 		case 0: //blocking
 			R = BlockResistance;
 		default: //saturation
 			// Ube - Ud = Ibe * (R + Re)
-			rowE[E1.Id_U] = 1;
-			rowE[E2.Id_U] = -1;
-			rowE[id] = -(R + Rc(E1));
-			rowE[icst] = PassPotential;
+			mat.set(id, E1.Id_U, 1);
+			mat.set(id, E2.Id_U, -1);
+			mat.set(id, id, -(R + Rc(E1)));
+			mat.set(id, icst, PassPotential);
 			// Ubc - Ud = Ibc * (R + Rc)
-			rowC[C1.Id_U] = 1;
-			rowC[C2.Id_U] = -1;
-			rowC[idC] = -(R + Rc(C1));
-			rowC[icst] = PassPotential;
+			mat.set(idC, C1.Id_U, 1);
+			mat.set(idC, C2.Id_U, -1);
+			mat.set(idC, idC, -(R + Rc(C1)));
+			mat.set(idC, icst, PassPotential);
 		}
 	}
 
@@ -101,6 +115,11 @@ public class Transistor extends Component implements INotify, IResistorMergable
 	public void update(double[] states, double dt) {
 		if (circuit.skipTick > 0) return;
 		double Ibe = states[id], Ibc = states[idC];
+		//linear extrapolation of when the junction currents cross zero
+		if (Ibe != lastBe && (Ibe > 0 ^ Ibe > lastBe)) circuit.reportEvent(Ibe / (lastBe - Ibe) * dt);
+		if (Ibc != lastBc && (Ibc > 0 ^ Ibc > lastBc)) circuit.reportEvent(Ibc / (lastBc - Ibc) * dt);
+		lastBe = Ibe;
+		lastBc = Ibc;
 		switch(state) {
 		case 0:
 			if (Ibe > 0) state |= 1;
@@ -123,11 +142,32 @@ public class Transistor extends Component implements INotify, IResistorMergable
 		circuit.setSwitch(swId2, (state & 2) != 0);
 	}
 
+	@Override
+	public int[] reads() {
+		return new int[] {id, idC, E1.Id_U, E2.Id_U, C1.Id_U, C2.Id_U};
+	}
+
 	@Override
 	public Pin[] getPins() {
 		return new Pin[]{E1, C1, E2, C2};
 	}
 
+	@Override
+	public int pinCount() {
+		return 4;
+	}
+
+	@Override
+	public Pin pin(int i) {
+		switch(i) {
+		case 0: return E1;
+		case 1: return C1;
+		case 2: return E2;
+		case 3: return C2;
+		default: throw new IndexOutOfBoundsException();
+		}
+	}
+
 	@Override
 	public void swapPin(Pin p) {
 		if (p == E1) E2 = E1.link;
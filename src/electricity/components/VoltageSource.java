@@ -2,6 +2,7 @@ package electricity.components;
 
 import electricity.IResistorMergable;
 import electricity.Parameter;
+import electricity.SparseMatrix;
 import static electricity.IResistorMergable.*;
 
 /**
@@ -22,12 +23,11 @@ public class VoltageSource extends BiPole implements Parameter, IResistorMergabl
 	}
 
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		double[] row = mat[id];
-		row[cid + states] = 1.0;
-		row[B.Id_U] = 1.0;
-		row[A.Id_U] = -1.0;
-		row[id] = Rc(A);
+	public void setEquations(SparseMatrix mat, int states) {
+		mat.set(id, cid + states, 1.0);
+		mat.set(id, B.Id_U, 1.0);
+		mat.set(id, A.Id_U, -1.0);
+		mat.set(id, id, Rc(A));
 	}
 
 	@Override
@@ -35,6 +35,11 @@ public class VoltageSource extends BiPole implements Parameter, IResistorMergabl
 		vec[cid] = U;
 	}
 
+	/**@return [V] the voltage it currently provides */
+	public double voltage() {
+		return U;
+	}
+
 	@Override
 	public int init() {
 		this.cid = circuit.addPar(this);
@@ -43,7 +48,7 @@ public class VoltageSource extends BiPole implements Parameter, IResistorMergabl
 
 	@Override
 	public String toString() {
-		return super.toString() + String.format(" U=%.3gV", U);
+		return super.toString() + String.format(" U=%.3gV", voltage());
 	}
 
 	@Override
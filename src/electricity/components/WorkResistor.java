@@ -1,44 +1,63 @@
 package electricity.components;
 
-import java.util.Random;
+import java.util.SplittableRandom;
 
-import electricity.INotify;
+import electricity.IScheduled;
 import electricity.IResistorMergable;
+import electricity.SparseMatrix;
 import static electricity.MathUtil.*;
 import static electricity.IResistorMergable.*;
 
-public class WorkResistor extends BiPole implements INotify, IResistorMergable {
-	private final Random rand;
-	private final double Rwork;
-	private final float T;
+public class WorkResistor extends BiPole implements IScheduled, IResistorMergable {
+	private final SplittableRandom rand;
+	/**[Ohm] resistance when turned on and [s] average interval between switching */
+	public final double Rwork, T;
 	private boolean running;
 	private int swId;
 	
 	public WorkResistor(double R, double T_2) {
-		this.T = (float)T_2;
+		this(R, T_2, new SplittableRandom());
+	}
+
+	/**
+	 * @param R [Ohm] resistance when turned on
+	 * @param T_2 [s] average interval between switching
+	 * @param rand random source (for reproducible or independent runs)
+	 * @throws IllegalArgumentException if T_2 is not positive
+	 */
+	public WorkResistor(double R, double T_2, SplittableRandom rand) {
+		if (!(T_2 > 0)) throw new IllegalArgumentException("switching interval must be positive");
+		this.T = T_2;
 		this.Rwork = R;
 		this.running = false;
-		this.rand = new Random();
+		this.rand = rand;
 	}
 	
 	@Override
-	public void setEquations(double[][] mat, int states) {
-		double[] row = mat[id];
-		row[id] = (running ? Rwork : BlockResistance) + Rc(A);
-		row[A.Id_U] = -1.0;
-		row[B.Id_U] = 1.0;
+	public void setEquations(SparseMatrix mat, int states) {
+		mat.set(id, id, (running ? Rwork : BlockResistance) + Rc(A));
+		mat.set(id, A.Id_U, -1.0);
+		mat.set(id, B.Id_U, 1.0);
 	}
 
 	@Override
-	public void update(double[] states, double dt) {
-		if (rand.nextFloat() < (float)dt / T)
-			circuit.setSwitch(swId, running = !running);
+	public void trigger(double time) {
+		circuit.setSwitch(swId, running = !running);
+		schedule();
+	}
+
+	/**
+	 * schedules the next switching, with exponentially distributed intervals like independent random switching in each moment
+	 */
+	private void schedule() {
+		circuit.schedule(-T * Math.log(1.0 - rand.nextDouble()), this);
 	}
 
 	@Override
 	public int init() {
 		this.swId = circuit.nextSwitch();
-		circuit.notifier.add(this);
+		circuit.setSwitch(swId, running);
+		schedule();
 		return super.init();
 	}
 
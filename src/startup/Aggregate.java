@@ -0,0 +1,55 @@
+package startup;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Measurement sink shared by all instances of an ensemble, that streams the mean, variance, minimum and maximum of each tick's samples into separate files.
+ */
+public class Aggregate implements DoubleConsumer, Closeable {
+
+	private final SampleWriter mean, var, min, max;
+	private int n;
+	private double m, m2, lo, hi;
+
+	public Aggregate(SampleWriter mean, SampleWriter var, SampleWriter min, SampleWriter max) {
+		this.mean = mean;
+		this.var = var;
+		this.min = min;
+		this.max = max;
+	}
+
+	@Override
+	public void accept(double x) {
+		//Welford's algorithm, numerically stable in one pass
+		double d = x - m;
+		m += d / (double)++n;
+		m2 += d * (x - m);
+		if (n == 1) lo = hi = x;
+		else if (x < lo) lo = x;
+		else if (x > hi) hi = x;
+	}
+
+	/**
+	 * writes the statistics of the current tick and starts the next one (ticks without samples are left out)
+	 */
+	public void tick() {
+		if (n == 0) return;
+		mean.accept(m);
+		var.accept(n > 1 ? m2 / (double)(n - 1) : 0);
+		min.accept(lo);
+		max.accept(hi);
+		n = 0;
+		m = m2 = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		mean.close();
+		var.close();
+		min.close();
+		max.close();
+	}
+
+}
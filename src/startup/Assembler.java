@@ -1,17 +1,38 @@
 package startup;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.DoubleConsumer;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.management.JMException;
+
 import electricity.Circuit;
+import electricity.Circuit.Integration;
+import electricity.Ensemble;
+import electricity.IResistorMergable;
+import electricity.MatrixCache;
+import electricity.Metrics;
 import electricity.Pin;
+import electricity.SolutionStore;
+import electricity.Stepper;
 import electricity.components.BiPole;
 import electricity.components.Capacitor;
 import electricity.components.CurrentSource;
@@ -31,230 +52,517 @@ public class Assembler {
 		if (args.length == 0) file = new File("./circuit.txt");
 		else file = new File(args[0]);
 		try {
+			//optional persistent storage of solved equations to speed up repeated runs
+			if (args.length > 1) Circuit.store = SolutionStore.open(new File(args[1]));
+			//runtime statistics of the circuits can be watched via JMX
+			Metrics.register();
 			Assembler.run(file);
-		} catch (NumberFormatException | IOException e) {
+		} catch (NumberFormatException | IOException | JMException e) {
 			e.printStackTrace();
+		} finally {
+			if (Circuit.store != null)
+				try {
+					Circuit.store.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 		}
 	}
 
 	public static void run(File file) throws NumberFormatException, IOException {
 		System.out.print("Loading circuit: ");
 		long t = System.nanoTime();
-		HashMap<String, double[]> settings = new HashMap<String, double[]>();
-		int cycles = 1000, precision = 512;
-		double dt = 0.05;
-		double[][] buffer = new double[3][];
-		double[][] cfg = new double[3][];
-		try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-			Pattern p = Pattern.compile("([WRLCUIMXTt]\\w)\\[([e\\.\\,\\d\\s\\-]+)\\]");
-			String line;
-			while((line = reader.readLine()) != null) {
-				Matcher m = p.matcher(line);
+		Plan plan = new Plan();
+		load(file, plan, ch -> plan.record(file, ch));
+		Ensemble ensemble = null;
+		if (plan.instances > 1) {
+			//load the remaining instances with their own random sources, all feeding the same statistics
+			ArrayList<List<Circuit>> instances = new ArrayList<List<Circuit>>();
+			instances.add(new ArrayList<Circuit>(Circuit.circuits));
+			for (int i = 1; i < plan.instances; i++) {
+				int n = Circuit.circuits.size();
+				Plan p = new Plan();
+				p.rand = plan.rand == null ? null : plan.rand.split();
+				load(file, p, ch -> plan.stats[ch]);
+				instances.add(new ArrayList<Circuit>(Circuit.circuits).subList(n, Circuit.circuits.size()));
+			}
+			ensemble = new Ensemble(instances);
+		}
+		int cycles = plan.cycles, precision = plan.precision, width = plan.width, tileWidth = plan.tileWidth;
+		double dt = plan.dt;
+		SampleWriter[] meters = plan.meters;
+		File[] samples = plan.samples;
+		double[][] cfg = plan.cfg;
+		t = System.nanoTime() - t;
+		System.out.printf("%.3f ms\n> %d Tiles, %d Circuits, %d Measures\nSimulation: ", (double)t * 1e-6D, plan.tiles, Circuit.circuits.size(), meters.length);
+		t = System.nanoTime();
+		
+		Stepper stepper = null;
+		if (ensemble == null && plan.tolerance > 0) {
+			stepper = new Stepper(plan.tolerance, plan.minStep, plan.maxStep);
+			stepper.simulate(cycles * dt);
+		} else if (ensemble == null)
+			Circuit.simulate(dt, cycles);
+		else
+			for (int i = 0; i < cycles; i++) {
+				ensemble.simulate(dt);
+				for (Aggregate a : plan.stats)
+					if (a != null) a.tick();
+			}
+		for (SampleWriter meter : meters)
+			if (meter != null) meter.close();
+		for (Aggregate a : plan.stats)
+			if (a != null) a.close();
+		
+		t = System.nanoTime() - t;
+		System.out.printf("%.3f ms for %d cycles", (double)t * 1e-6D, cycles);
+		if (stepper != null) System.out.printf(" in %d adaptive steps", stepper.steps());
+		if (ensemble != null) System.out.printf(" of %d instances (statistics shown for the first one, caches are shared)", ensemble.instances());
+		System.out.println();
+		for (Circuit circuit : ensemble == null ? Circuit.circuits : Arrays.asList(ensemble.first())) {
+			MatrixCache cache = circuit.cache();
+			System.out.printf(" - %d Nodes, %d Parameters, %d Switches, %d Listeners\n", circuit.nodes(), circuit.parameters(), circuit.switches(), circuit.listener());
+			System.out.printf("   cache: %d hits, %d misses, %d evictions, %d entries using %.1f kB\n", cache.hits(), cache.misses(), cache.evictions(), cache.entries(), (double)cache.size() / 1024D);
+			Metrics m = circuit.metrics();
+			Metrics.Histogram solve = m.getSolveTime(), eval = m.getEvaluationTime();
+			System.out.printf("   %d ticks (%d propagated), %d reruns, %d setups, %d rescans, %d switch flips\n", m.getTicks(), m.getPropagated(), m.getReruns(), m.getSetups(), m.getRescans(), m.getSwitchFlips());
+			System.out.printf("   solve: %d x %.1f us (p99 < %.1f us), evaluate: %d x %.2f us (p99 < %.2f us)\n", solve.getCount(), solve.mean() * 1e-3, (double)solve.getP99() * 1e-3, m.getEvaluations(), eval.mean() * 1e-3, (double)eval.getP99() * 1e-3);
+		}
+		if (Circuit.store != null)
+			System.out.printf(" - store: %d loaded, %d stored, %d entries\n", Circuit.store.loads(), Circuit.store.stores(), Circuit.store.entries());
+		System.out.printf("Draw graph: ");
+		t = System.nanoTime();
+		
+		final int w = width > 0 ? width : Math.min(cycles, MaxWidth);
+		//scan the channels in parallel, only drawing them into the image is sequential
+		ArrayList<Callable<Graph.Envelope>> scans = new ArrayList<Callable<Graph.Envelope>>();
+		for (File f : samples)
+			if (f != null) scans.add(() -> {
+				try (SampleReader reader = new SampleReader(f)) {
+					return Graph.envelope(reader, w);
+				}
+			});
+		Graph graph = new Graph(w, precision);
+		double[] min = new double[3], max = new double[3];
+		try {
+			List<Future<Graph.Envelope>> envs = ForkJoinPool.commonPool().invokeAll(scans);
+			for (int i = 0, j = 0; i < 3; i++)
+				if (samples[i] != null) {
+					Graph.Envelope env = envs.get(j++).get();
+					double[] c = cfg[i];
+					min[i] = c.length > 2 ? c[1] : env.min;
+					max[i] = c.length > 2 ? c[2] : env.max;
+					graph.draw(i, env, min[i], max[i]);
+				}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		}
+		
+		t = System.nanoTime() - t;
+		System.out.printf("%.3f ms\nSaving image: ", (double)t * 1e-6D);
+		t = System.nanoTime();
+		
+		graph.save(new File(name(file, ".png")));
+		
+		t = System.nanoTime() - t;
+		System.out.printf("%.3f ms\n", (double)t * 1e-6D);
+		if (tileWidth > 0) {
+			System.out.printf("Saving tiles: ");
+			t = System.nanoTime();
+			SampleReader[] readers = new SampleReader[3];
+			try {
+				for (int i = 0; i < 3; i++)
+					if (samples[i] != null) readers[i] = new SampleReader(samples[i]);
+				int levels = Graph.drawTiles(readers, min, max, tileWidth, precision, new File(name(file, "_tiles")));
+				t = System.nanoTime() - t;
+				System.out.printf("%.3f ms for %d levels\n", (double)t * 1e-6D, levels);
+			} finally {
+				for (SampleReader r : readers)
+					if (r != null) r.close();
+			}
+		}
+		System.out.printf("done!");
+	}
+
+	/**
+	 * Parses a circuit plan and builds its circuits, which are added to {@link Circuit#circuits}.
+	 * @param file the circuit plan
+	 * @param record whether to stream the measured samples into files next to the plan, otherwise they are discarded
+	 * @return the simulation settings of the plan
+	 * @throws IOException if reading the plan or creating the sample files failed
+	 */
+	public static Plan load(File file, boolean record) throws NumberFormatException, IOException {
+		Plan plan = new Plan();
+		return load(file, plan, record ? ch -> plan.record(file, ch) : null);
+	}
+
+	/**
+	 * Parses a circuit plan, imports a {@link Spice} netlist or loads a compiled {@link Netlist} and builds its circuits, which are added to {@link Circuit#circuits}.
+	 * @param file the circuit plan or netlist
+	 * @param plan receives the simulation settings, its random source is used for the components if set
+	 * @param meters provides the sink for each measured channel (0 = red, 1 = green, 2 = blue) or null to discard all samples
+	 * @return the given plan
+	 * @throws IOException if reading the plan or creating the sample files failed
+	 */
+	public static Plan load(File file, Plan plan, IntFunction<DoubleConsumer> meters) throws NumberFormatException, IOException {
+		try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			Source src = new Source(ch);
+			if (src.buf.remaining() >= 4 && src.buf.getInt(0) == Netlist.Magic) {
+				if (src.buf.limit() < ch.size()) throw new IOException("netlist exceeds the mapped window of " + Source.Window + " bytes");
+				return Netlist.read(src.buf, plan, meters);
+			}
+			if (Spice.accepts(file)) return Spice.read(src, plan, meters);
+			return load(src, plan, meters);
+		}
+	}
+
+	/**
+	 * @return the path of the given plan file with its extension replaced by the given suffix
+	 */
+	static String name(File file, String suffix) {
+		String path = file.getAbsolutePath();
+		int i = path.lastIndexOf('.');
+		if (i > path.lastIndexOf(File.separatorChar)) path = path.substring(0, i);
+		return path + suffix;
+	}
+
+	/**
+	 * Parses a circuit plan and builds its circuits, which are added to {@link Circuit#circuits}.
+	 * @param in the circuit plan from its position to its limit
+	 * @param plan receives the simulation settings, its random source is used for the components if set and its {@link Plan#settings} override the ones declared in the plan
+	 * @param meters provides the sink for each measured channel (0 = red, 1 = green, 2 = blue) or null to discard all samples
+	 * @return the given plan
+	 * @throws IOException if creating the sample files failed
+	 */
+	public static Plan load(ByteBuffer in, Plan plan, IntFunction<DoubleConsumer> meters) throws NumberFormatException, IOException {
+		return load(new Source(in), plan, meters);
+	}
+
+	/**
+	 * The grid is parsed row by row, keeping only the tiles of the previous and the current row because connections only go up and left.
+	 * Cable nets are connected as soon as a row ends without extending them, so memory doesn't grow with the area of the plan.
+	 */
+	private static Plan load(Source in, Plan plan, IntFunction<DoubleConsumer> meters) throws NumberFormatException, IOException {
+		HashMap<String, double[]> settings = plan.settings;
+		double[][] cfg = plan.cfg;
+		try {
+			Pattern p = Pattern.compile("([WRLCUIMXTtEA]\\w)\\[([e\\.\\,\\d\\s\\-]+)\\]");
+			//the header is small enough to be decoded line by line
+			StringBuilder sb = new StringBuilder();
+			for (int b = 0; b >= 0;) {
+				sb.setLength(0);
+				while ((b = in.read()) >= 0 && b != '\n') sb.append((char)b);
+				Matcher m = p.matcher(sb);
 				while(m.find()) {
 					String[] val = m.group(2).split(",");
 					double[] data = new double[val.length];
 					for (int i = 0; i < data.length; i++)
 						data[i] = Double.parseDouble(val[i].trim());
-					settings.put(m.group(1), data);
-				}
-				if (line.indexOf(';') >= 0) {
-					line = reader.readLine();
-					break;
+					settings.putIfAbsent(m.group(1), data);
 				}
+				if (sb.indexOf(";") >= 0) break;
 			}
 			
-			{double[] data = settings.get("XY");
-			if (data != null) {
-				precision = (int)data[1];
-				dt = data[2];
-				cycles = (int)(data[0] / dt);
-			}}
+			plan.configure();
 			
-			HashMap<Pos, Module> modules = new HashMap<Pos, Module>();
-			ArrayList<IInit> toInit = new ArrayList<IInit>();
-			for (int y = 0; line != null; line = reader.readLine(), y++) {
-				char[] cl = line.toCharArray();
-				for (int x = 0; x < cl.length; x++) {
-					char c = cl[x];
+			//tiles of the previous and current row
+			Module[] prev = new Module[0], cur = new Module[0];
+			int tiles = 0;
+			for (int y = 0, n; (n = in.readLine()) >= 0; y++) {
+				byte[] cl = in.line;
+				if (cur.length < cl.length) {
+					prev = Arrays.copyOf(prev, cl.length);
+					cur = Arrays.copyOf(cur, cl.length);
+				}
+				for (int x = 0; x < n; x++) {
+					char c = (char)cl[x];
 					Module m;
 					switch(c) {
-					case '+': m = new CrossJunction(); break;
-					case '-': m = new OrientedBipole(new Resistor(R_cable), Side.left, Side.right); break;
-					case '|': m = new OrientedBipole(new Resistor(R_cable), Side.down, Side.up); break;
+					case '+': m = Wire.cross(x, y); break;
+					case '-': m = new Wire(x, y, Side.left, Side.right); break;
+					case '|': m = new Wire(x, y, Side.down, Side.up); break;
 					case '/': {
-						Module m1 = modules.get(new Pos(x, y - 1));
+						Module m1 = prev[x];
 						if (m1 == null || !m1.canConnect(Side.up))
-							m = new OrientedBipole(new Resistor(R_cable), Side.right, Side.down);
+							m = new Wire(x, y, Side.right, Side.down);
 						else
-							m = new OrientedBipole(new Resistor(R_cable), Side.left, Side.up);
+							m = new Wire(x, y, Side.left, Side.up);
 					} break;
 					case '\\': {
-						Module m1 = modules.get(new Pos(x, y - 1));
+						Module m1 = prev[x];
 						if (m1 == null || !m1.canConnect(Side.up))
-							m = new OrientedBipole(new Resistor(R_cable), Side.left, Side.down);
+							m = new Wire(x, y, Side.left, Side.down);
 						else
-							m = new OrientedBipole(new Resistor(R_cable), Side.right, Side.up);
+							m = new Wire(x, y, Side.right, Side.up);
 					} break;
 					case 't': case 'T': {
-						double[] data = settings.get("" + c + cl[x + 1]);
-						Module m1 = modules.get(new Pos(x - 1, y));
+						double[] data = settings.get("" + c + (char)cl[x + 1]);
+						Module m1 = x > 0 ? cur[x - 1] : null;
 						Side b = m1 != null && m1.canConnect(Side.right) ? Side.left : Side.right;
 						m = new TransistorComp(b, c == 'T', data[0], data[1]);
-						modules.put(new Pos(x + 1, y), m);
+						tiles += put(cur, x + 1, m);
 					} break;
-					case '*': m = new AnyJunction(); break;
+					case '*': m = new Wire(x, y, Side.left, Side.right, Side.up, Side.down); break;
 					case '>': m = new OrientedBipole(new Diode(), Side.left, Side.right); break;
 					case '<': m = new OrientedBipole(new Diode(), Side.right, Side.left); break;
 					case '^': m = new OrientedBipole(new Diode(), Side.down, Side.up); break;
 					case 'V': m = new OrientedBipole(new Diode(), Side.up, Side.down); break;
 					case 'R': {
-						double[] data = settings.get("" + c + cl[x + 1]);
+						double[] data = settings.get("" + c + (char)cl[x + 1]);
 						m = new NonOrBipole(new Resistor(data[0]));
-						modules.put(new Pos(x + 1, y), m);
+						tiles += put(cur, x + 1, m);
 					} break;
 					case 'W': {
-						double[] data = settings.get("" + c + cl[x + 1]);
-						m = new NonOrBipole(new WorkResistor(data[0], data[1]));
-						modules.put(new Pos(x + 1, y), m);
+						double[] data = settings.get("" + c + (char)cl[x + 1]);
+						m = new NonOrBipole(new WorkResistor(data[0], data[1], plan.rand == null ? new SplittableRandom() : plan.rand.split()));
+						tiles += put(cur, x + 1, m);
 					} break;
 					case 'C': {
-						double[] data = settings.get("" + c + cl[x + 1]);
+						double[] data = settings.get("" + c + (char)cl[x + 1]);
 						m = new NonOrBipole(new Capacitor(data[0], data[1]));
-						modules.put(new Pos(x + 1, y), m);
+						tiles += put(cur, x + 1, m);
 					} break;
 					case 'L': {
-						double[] data = settings.get("" + c + cl[x + 1]);
+						double[] data = settings.get("" + c + (char)cl[x + 1]);
 						m = new NonOrBipole(new Inductor(data[0], data[1]));
-						modules.put(new Pos(x + 1, y), m);
+						tiles += put(cur, x + 1, m);
 					} break;
 					case 'U': {
-						double[] data = settings.get("" + c + cl[x + 1]);
+						double[] data = settings.get("" + c + (char)cl[x + 1]);
 						m = new NonOrBipole(new VoltageSource(data[0]));
-						modules.put(new Pos(x + 1, y), m);
+						tiles += put(cur, x + 1, m);
 					} break;
 					case 'I': {
-						double[] data = settings.get("" + c + cl[x + 1]);
+						double[] data = settings.get("" + c + (char)cl[x + 1]);
 						m = new NonOrBipole(new CurrentSource(data[0]));
-						modules.put(new Pos(x + 1, y), m);
+						tiles += put(cur, x + 1, m);
 					} break;
 					case 'M': {
-						char cc = cl[x + 1];
+						char cc = (char)cl[x + 1];
 						int i = cc == 'r' ? 0 : cc == 'g' ? 1 : 2;
 						double[] data = settings.get("" + c + cc);
-						final double[] b = new double[cycles];
-						buffer[i] = b;
 						cfg[i] = data;
-						m = new NonOrBipole(new MultiMeter(Unit.values()[(int)data[0]], new Measure(b)));
-						modules.put(new Pos(x + 1, y), m);
+						DoubleConsumer out = meters == null ? null : meters.apply(i);
+						MultiMeter meter = new MultiMeter(Unit.values()[(int)data[0]], out == null ? v -> {} : out);
+						//adaptive steps are resampled to one sample per tick
+						if (plan.tolerance > 0) meter.resample(plan.dt);
+						plan.probes[i] = meter;
+						m = new NonOrBipole(meter);
+						tiles += put(cur, x + 1, m);
 					} break;
 					default: continue;
 					}
-					modules.put(new Pos(x, y), m);
+					tiles += put(cur, x, m);
 					if (y > 0 && m.canConnect(Side.up)) {
-						Module m2 = modules.get(new Pos(x, y - 1));
+						Module m2 = prev[x];
 						if (m2 != null && m2.canConnect(Side.down))
-							Circuit.connectPins(m.getPin(Side.up), m2.getPin(Side.down));
+							connect(m, Side.up, m2, Side.down);
 					}
 					if (x > 0 && m.canConnect(Side.left)) {
-						Module m2 = modules.get(new Pos(x - 1, y));
+						Module m2 = cur[x - 1];
 						if (m2 != null && m2.canConnect(Side.right))
-							Circuit.connectPins(m.getPin(Side.left), m2.getPin(Side.right));
+							connect(m, Side.left, m2, Side.right);
 					}
-					if (m instanceof IInit) toInit.add((IInit)m);
 				}
+				//nets of the previous row that didn't reach this one are complete
+				close(prev, y, plan.lumped);
+				Module[] t = prev; prev = cur; cur = t;
+				Arrays.fill(cur, null);
 			}
-			reader.close();
-			for (IInit init : toInit)
-				init.init();
-			
-			t = System.nanoTime() - t;
-			System.out.printf("%.3f ms\n> %d Tiles, %d Circuits, %d Measures\nSimulation: ", (double)t * 1e-6D, modules.size(), Circuit.circuits.size(), buffer.length);
+			close(prev, Integer.MAX_VALUE, plan.lumped);
+			if (Circuit.circuits.size() > 1 && Runtime.getRuntime().availableProcessors() > 1)
+				Circuit.pool = ForkJoinPool.commonPool();
+			plan.tiles = tiles;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
 		}
-		t = System.nanoTime();
-		
-		for (int i = 0; i < cycles; i++)
-			Circuit.simulate(dt);
-		
-		t = System.nanoTime() - t;
-		System.out.printf("%.3f ms for %d cycles\n", (double)t * 1e-6D, cycles);
-		for (Circuit circuit : Circuit.circuits)
-			System.out.printf(" - %d Nodes, %d Parameters, %d Switches, %d Listeners\n", circuit.nodes(), circuit.parameters(), circuit.switches(), circuit.listener());
-		System.out.printf("Draw graph: ");
-		t = System.nanoTime();
-		
-		Graph graph = new Graph(cycles, precision);
-		for (int i = 0; i < 3; i++)
-			if (buffer[i] != null) {
-				double[] c = cfg[i];
-				graph.draw(i, buffer[i], c.length > 1 ? c[1] : Double.NaN, c.length > 2 ? c[2] : Double.NaN);
-			}
-		
-		t = System.nanoTime() - t;
-		System.out.printf("%.3f ms\nSaving image: ", (double)t * 1e-6D);
-		t = System.nanoTime();
-		
-		graph.save(new File(file.getAbsolutePath().replace(".txt", ".png")));
-		
-		t = System.nanoTime() - t;
-		System.out.printf("%.3f ms\ndone!", (double)t * 1e-6D);
+		return plan;
 	}
 
-	static final double R_cable = 0.0001;
-	
-	static class Pos {
-		int x, y;
-		Pos(int x, int y) {this.x = x; this.y = y;}
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + x;
-			result = prime * result + y;
-			return result;
+	/**
+	 * @return 1 if the tile was empty before
+	 */
+	private static int put(Module[] row, int x, Module m) {
+		Module m0 = row[x];
+		row[x] = m;
+		return m0 == null ? 1 : 0;
+	}
+
+	/**
+	 * connects the nets of cables in the given row that don't extend to the given row index or further
+	 * @param R [Ohm] cable resistance to lump in series to the attached components
+	 */
+	private static void close(Module[] row, int y, double R) {
+		for (Module m : row)
+			if (m instanceof Wire)
+				for (Net n : ((Wire)m).nets)
+					if (n != null && (n = n.find()).lastRow < y) n.connect(R);
+	}
+
+	/**
+	 * Simulation settings of a loaded circuit plan
+	 */
+	public static class Plan {
+		public int cycles = 1000, precision = 512, width = 0, tileWidth = 0;
+		public double dt = 0.05;
+		/**amount of tiles in the plan */
+		public int tiles;
+		/**[Ohm] resistance lumped in series to each component pin attached to a cable net, keeps ideal sources connected in parallel solvable. 0 connects the pins directly */
+		public double lumped = R_cable;
+		/**maximum relative error per step for adaptive time steps (0 for fixed ticks) and [s] the step size limits */
+		public double tolerance, minStep, maxStep;
+		/**amount of instances to simulate as ensemble */
+		public int instances = 1;
+		/**random source to split the random sources of components from, null for unseeded */
+		public SplittableRandom rand;
+		/**declared objects by their two character identifier with their numbers, entries put before loading replace the declarations in the plan */
+		public final HashMap<String, double[]> settings = new HashMap<String, double[]>();
+		/**meter components of the channels red, green, blue (null if unused) */
+		final MultiMeter[] probes = new MultiMeter[3];
+		/**recorded channels red, green, blue and their meter settings (null if unused) */
+		final SampleWriter[] meters = new SampleWriter[3];
+		final File[] samples = new File[3];
+		final double[][] cfg = new double[3][];
+		/**statistics over all instances of the recorded channels, if simulated as ensemble */
+		final Aggregate[] stats = new Aggregate[3];
+
+		/**
+		 * applies the simulation settings declared in {@link #settings}
+		 */
+		void configure() {
+			{double[] data = settings.get("EN");
+			if (data != null) {
+				instances = Math.max(1, (int)data[0]);
+				if (rand == null && data.length > 1) rand = new SplittableRandom((long)data[1]);
+			}}
+			{double[] data = settings.get("XY");
+			if (data != null) {
+				precision = (int)data[1];
+				dt = data[2];
+				cycles = (int)(data[0] / dt);
+				if (data.length > 3) width = (int)data[3];
+				if (data.length > 4) tileWidth = (int)data[4];
+			}}
+			{double[] data = settings.get("AD");
+			if (data != null) {
+				tolerance = data[0];
+				maxStep = data.length > 1 ? data[1] : dt;
+				minStep = data.length > 2 ? data[2] : dt * 1e-3;
+			}}
+			{double[] data = settings.get("XR");
+			if (data != null) lumped = Math.max(0, data[0]);}
+			{double[] data = settings.get("XI");
+			if (data != null) {
+				Integration[] modes = Integration.values();
+				Circuit.integration = modes[Math.max(0, Math.min(modes.length - 1, (int)data[0]))];
+			}}
 		}
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			Pos other = (Pos) obj;
-			if (x != other.x)
-				return false;
-			if (y != other.y)
-				return false;
-			return true;
+
+		/**
+		 * streams the samples of the given channel into a file next to the plan.<br>
+		 * For ensembles this file receives the mean of all instances and further statistics go into files with suffix _var, _min and _max.
+		 * @param file the circuit plan
+		 * @param ch channel index
+		 * @return the sink for the samples
+		 * @throws UncheckedIOException if the file can't be created
+		 */
+		DoubleConsumer record(File file, int ch) {
+			String name = name(file, "_" + "rgb".charAt(ch));
+			try {
+				if (meters[ch] != null) meters[ch].close();
+				if (stats[ch] != null) stats[ch].close();
+				samples[ch] = new File(name + ".samples");
+				meters[ch] = new SampleWriter(samples[ch]);
+				if (instances <= 1) return meters[ch];
+				return stats[ch] = new Aggregate(meters[ch],
+					new SampleWriter(new File(name + "_var.samples")),
+					new SampleWriter(new File(name + "_min.samples")),
+					new SampleWriter(new File(name + "_max.samples")));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
 		}
 	}
 
-	static interface Module {
-		Pin getPin(Side side);
-		boolean canConnect(Side side);
-	}
+	/**default maximum image width, longer recordings are drawn with several samples per pixel column */
+	static final int MaxWidth = 1 << 16;
+
+	static final double R_cable = 0.0001;
 
-	static interface IInit {
-		void init();
+	/**
+	 * connects two adjacent tiles: cables are joined into one net and components are attached to it, adjacent components are connected directly.
+	 */
+	static void connect(Module m1, Side s1, Module m2, Side s2) {
+		if (m1 instanceof Wire && m2 instanceof Wire) ((Wire)m1).nets[s1.ordinal()].union(((Wire)m2).nets[s2.ordinal()]);
+		else if (m1 instanceof Wire) ((Wire)m1).nets[s1.ordinal()].attach(m2, s2);
+		else if (m2 instanceof Wire) ((Wire)m2).nets[s2.ordinal()].attach(m1, s1);
+		else Circuit.connectPins(m1.getPin(s1), m2.getPin(s2));
 	}
+	
+	/**
+	 * Reads a plan from a byte buffer or a file mapped into memory in windows, without decoding it into strings.
+	 */
+	static class Source {
+		/**size of the mapped file windows */
+		static final long Window = 1L << 30;
 
-	static class CrossJunction implements Module {
-		final Resistor R_lr = new Resistor(R_cable), R_du = new Resistor(R_cable);
-		@Override
-		public Pin getPin(Side side) {
-			switch(side) {
-			case left: return R_lr.A;
-			case right: return R_lr.B;
-			case up: return R_du.B;
-			default: return R_du.A;
+		private final FileChannel channel;
+		ByteBuffer buf;
+		private long pos;
+		/**the last line read, as one byte per character and terminated by a 0 */
+		byte[] line = new byte[64];
+
+		Source(ByteBuffer buf) {
+			this.channel = null;
+			this.buf = buf;
+		}
+
+		Source(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.buf = map(channel, 0);
+		}
+
+		private static MappedByteBuffer map(FileChannel ch, long pos) throws IOException {
+			return ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Window, ch.size() - pos));
+		}
+
+		/**
+		 * @return the next byte or -1 at the end
+		 */
+		int read() throws IOException {
+			if (!buf.hasRemaining()) {
+				if (channel == null) return -1;
+				pos += buf.limit();
+				if (pos >= channel.size()) return -1;
+				buf = map(channel, pos);
 			}
+			return buf.get() & 0xff;
 		}
-		@Override
-		public boolean canConnect(Side side) {
-			return true;
+
+		/**
+		 * reads the next line into {@link #line}, without its line break.
+		 * Characters encoded as multiple bytes in UTF-8 are reduced to their first byte, which is no valid tile, so columns still match.
+		 * @return length of the line or -1 at the end
+		 */
+		int readLine() throws IOException {
+			int b = read(), n = 0;
+			if (b < 0) return -1;
+			for (; b >= 0 && b != '\n'; b = read()) {
+				if ((b & 0xc0) == 0x80) continue;
+				if (n + 1 >= line.length) line = Arrays.copyOf(line, line.length * 2);
+				line[n++] = (byte)b;
+			}
+			if (n > 0 && line[n - 1] == '\r') n--;
+			line[n] = 0;
+			return n;
 		}
 	}
 
+	static interface Module {
+		Pin getPin(Side side);
+		boolean canConnect(Side side);
+	}
+
 	static class OrientedBipole implements Module {
 		final BiPole C;
 		final Side A, B;
@@ -300,29 +608,97 @@ public class Assembler {
 		}
 	}
 
-	static class AnyJunction implements Module, IInit {
-		final Resistor[] Rs = new Resistor[4];
-		int cons = 0;
+	/**
+	 * A cable tile, which has no electrical component of its own but joins the connected sides into a {@link Net}.
+	 */
+	static class Wire implements Module {
+		/**net of each side or null if not connectable */
+		final Net[] nets = new Net[4];
+
+		Wire(int x, int y, Side... sides) {
+			Net n = new Net(x, y);
+			for (Side s : sides) nets[s.ordinal()] = n;
+		}
+
+		/**
+		 * @return a crossing of two separate cables
+		 */
+		static Wire cross(int x, int y) {
+			Wire w = new Wire(x, y, Side.left, Side.right);
+			w.nets[Side.up.ordinal()] = w.nets[Side.down.ordinal()] = new Net(x, y);
+			return w;
+		}
+
 		@Override
 		public Pin getPin(Side side) {
-			Resistor R = Rs[side.ordinal()];
-			if (R == null) {
-				Rs[side.ordinal()] = R = new Resistor(R_cable / 2.0);
-				cons++;
-			}
-			return R.A;
+			return null;
 		}
+
 		@Override
 		public boolean canConnect(Side side) {
-			return true;
+			return nets[side.ordinal()] != null;
 		}
-		@Override
-		public void init() {
-			Pin[] pins = new Pin[cons];
-			int j = 0;
-			for (Resistor R : Rs)
-				if (R != null) pins[j++] = R.B;
-			Circuit.connectPins(pins);
+	}
+
+	/**
+	 * A set of connected cable tiles forming one electrical node, merged via union find.
+	 */
+	static class Net {
+		/**position of the first tile */
+		final int x, y;
+		Net parent = this;
+		/**last row with tiles of this net, it can't grow anymore once the parser has passed the next row */
+		int lastRow;
+		/**component pins to connect, resolved on {@link #connect()} because merging resistors may replace them */
+		ArrayList<Supplier<Pin>> pins = new ArrayList<Supplier<Pin>>();
+		boolean connected;
+
+		Net(int x, int y) {
+			this.x = x;
+			this.y = y;
+			this.lastRow = y;
+		}
+
+		Net find() {
+			Net n = this;
+			while (n.parent != n) n = n.parent = n.parent.parent;
+			return n;
+		}
+
+		void union(Net net) {
+			Net a = find(), b = net.find();
+			if (a == b) return;
+			b.parent = a;
+			a.lastRow = Math.max(a.lastRow, b.lastRow);
+			a.pins.addAll(b.pins);
+			b.pins = null;
+		}
+
+		void attach(Module m, Side s) {
+			m.getPin(s);//fixes the orientation of the component
+			find().pins.add(() -> m.getPin(s));
+		}
+
+		/**
+		 * @param R [Ohm] cable resistance to lump in series to the attached components
+		 */
+		void connect(double R) {
+			if (connected) return;
+			connected = true;
+			if (pins.isEmpty()) return;
+			if (pins.size() == 1) System.err.printf("WARNING open cable at %d, %d\n", x, y);
+			Pin[] p = new Pin[pins.size()];
+			for (int i = 0; i < p.length; i++) {
+				Pin pin = pins.get(i).get();
+				if (R > 0 && pin.I instanceof IResistorMergable) {
+					Resistor r = new Resistor(R);
+					Circuit.connectPins(pin, r.A);
+					pin = r.B;
+				}
+				p[i] = pin;
+			}
+			Circuit.connectPins(p);
+			pins = null;
 		}
 	}
 
@@ -361,19 +737,4 @@ public class Assembler {
 		left, right, up, down;
 	}
 
-	static class Measure implements DoubleConsumer {
-		final double[] data;
-		int t = 0;
-
-		Measure(double[] data) {
-			this.data = data;
-		}
-		
-		@Override
-		public void accept(double value) {
-			data[t++] = value;
-		}
-
-	}
-
 }
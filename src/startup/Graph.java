@@ -3,42 +3,60 @@ package startup;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import javax.imageio.ImageIO;
 
+/**
+ * Draws recorded channels as red, green and blue curves.<br>
+ * If there are more samples than pixel columns, each column shows the range between the smallest and largest sample it covers, so short spikes remain visible.
+ */
 public class Graph {
 
+	static final String[] Colors = {"0xc00000", "0x00c000", "0x0000c0"};
+
 	final BufferedImage img;
 
 	public Graph(int width, int height) {
 		this.img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		
+
 	}
 
-	public void draw(int ch, double[] func, double min, double max) {
-		if (Double.isNaN(min) || Double.isNaN(max)) {
-			min = Double.POSITIVE_INFINITY;
-			max = Double.NEGATIVE_INFINITY;
-			for (double d : func) {
-				if (d < min) min = d;
-				if (d > max) max = d;
+	/**
+	 * Computes the value range and the column envelope of a recording in one pass.<br>
+	 * This is independent of any image and can run in parallel for multiple channels.
+	 * @param func the recorded samples
+	 * @param width amount of columns
+	 * @return the envelope
+	 * @throws IOException if reading failed
+	 */
+	public static Envelope envelope(SampleReader func, int width) throws IOException {
+		Envelope env = new Envelope(width);
+		long len = func.length();
+		double[] buf = new double[SampleWriter.ChunkSize];
+		for (long i = 0, n; (n = func.read(i, buf, 0, buf.length)) > 0; i += n)
+			for (int j = 0; j < n; j++) {
+				long k = i + j;
+				env.add(len <= width ? (int)k : (int)(k * width / len), buf[j]);
 			}
+		return env;
+	}
+
+	public void draw(int ch, Envelope env, double min, double max) {
+		if (Double.isNaN(min) || Double.isNaN(max)) {
+			min = env.min;
+			max = env.max;
 		}
-		int h = img.getHeight(), w = img.getWidth();
+		int h = img.getHeight();
 		Graphics2D g = img.createGraphics();
-		g.setColor(Color.decode(ch == 0 ? "0xc00000" : ch == 1 ? "0x00c000" : "0x0000c0"));
+		g.setColor(Color.decode(Colors[ch]));
 		g.drawString(String.format("%.3g", max), ch * 80, g.getFontMetrics().getAscent() + 1);
 		g.drawString(String.format("%.3g", min), ch * 80, h - g.getFontMetrics().getDescent() - 1);
 		g.dispose();
-		WritableRaster raster = img.getRaster();
-		double scale = (double)h / (max - min);
-		if (Double.isInfinite(scale)) return;
-		for (int i = 0; i < w; i++) {
-			int y = h - (int)Math.ceil((func[i] - min) * scale);
-			if (y >= 0 && y < h) raster.setSample(i, y, ch, 255);
-		}
+		env.draw(img.getRaster(), ch, 0, img.getWidth(), min, max);
 	}
 
 	public void save(File file) {
@@ -49,4 +67,115 @@ public class Graph {
 		}
 	}
 
+	/**
+	 * Writes a multi resolution tile pyramid of the given channels, to view long recordings at any zoom level without drawing one giant image.<br>
+	 * Level 0 shows one sample per pixel column and each further level halves the resolution, until a single tile covers the whole recording.
+	 * Tiles are stored as {@code dir/<level>/<index>.png} and all channels are drawn in the same value range as given.
+	 * The samples are read only once and memory use only depends on the tile size and amount of levels.
+	 * @param channels recorded samples for red, green and blue (null entries are skipped)
+	 * @param min lower end of the value range of each channel
+	 * @param max upper end of the value range of each channel
+	 * @param width tile width in pixel columns
+	 * @param height tile height in pixels
+	 * @param dir directory to write the tiles into
+	 * @return amount of levels written
+	 * @throws IOException if reading or writing failed
+	 */
+	public static int drawTiles(SampleReader[] channels, double[] min, double[] max, int width, int height, File dir) throws IOException {
+		long len = 0;
+		for (SampleReader r : channels)
+			if (r != null) len = Math.max(len, r.length());
+		int levels = 1;
+		while (((long)width << levels - 1) < len) levels++;
+		Envelope[][] tiles = new Envelope[levels][channels.length];
+		for (Envelope[] t : tiles)
+			for (int c = 0; c < channels.length; c++)
+				if (channels[c] != null) t[c] = new Envelope(width);
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		double[][] bufs = new double[channels.length][SampleWriter.ChunkSize];
+		int[] n = new int[channels.length];
+		for (long i = 0; i < len; i += SampleWriter.ChunkSize) {
+			int m = 0;
+			for (int c = 0; c < channels.length; c++)
+				if (channels[c] != null) m = Math.max(m, n[c] = channels[c].read(i, bufs[c], 0, bufs[c].length));
+			for (int j = 0; j < m; j++) {
+				long k = i + j;
+				for (int c = 0; c < channels.length; c++)
+					if (j < n[c]) tiles[0][c].add((int)(k % width), bufs[c][j]);
+				boolean last = k + 1 == len;
+				//pass each completed column on to the next level and save completed tiles
+				for (int l = 0; l < levels; l++) {
+					if (!last && ((k + 1) & (1L << l) - 1) != 0) break;
+					long col = k >> l;
+					if (l + 1 < levels)
+						for (int c = 0; c < channels.length; c++)
+							if (tiles[l][c] != null) tiles[l + 1][c].merge((int)((col >> 1) % width), tiles[l][c], (int)(col % width));
+					if (last || (col + 1) % width == 0)
+						saveTile(tiles[l], img, min, max, new File(dir, l + File.separator + col / width + ".png"));
+				}
+			}
+		}
+		return levels;
+	}
+
+	private static void saveTile(Envelope[] tile, BufferedImage img, double[] min, double[] max, File file) throws IOException {
+		Arrays.fill(((DataBufferInt)img.getRaster().getDataBuffer()).getData(), 0);
+		for (int c = 0; c < tile.length; c++)
+			if (tile[c] != null) {
+				tile[c].draw(img.getRaster(), c, 0, img.getWidth(), min[c], max[c]);
+				tile[c].clear();
+			}
+		file.getParentFile().mkdirs();
+		ImageIO.write(img, "PNG", file);
+	}
+
+	/**
+	 * Smallest and largest sample of each pixel column and of the whole recording.
+	 */
+	public static class Envelope {
+
+		public double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		final double[] lo, hi;
+
+		Envelope(int width) {
+			this.lo = new double[width];
+			this.hi = new double[width];
+			clear();
+		}
+
+		void add(int col, double x) {
+			if (x < lo[col]) lo[col] = x;
+			if (x > hi[col]) hi[col] = x;
+			if (x < min) min = x;
+			if (x > max) max = x;
+		}
+
+		void merge(int col, Envelope env, int from) {
+			if (env.lo[from] < lo[col]) lo[col] = env.lo[from];
+			if (env.hi[from] > hi[col]) hi[col] = env.hi[from];
+		}
+
+		void clear() {
+			Arrays.fill(lo, Double.POSITIVE_INFINITY);
+			Arrays.fill(hi, Double.NEGATIVE_INFINITY);
+		}
+
+		/**
+		 * draws columns {@code x0 <= x < x1} as vertical lines into the given color band
+		 */
+		void draw(WritableRaster raster, int ch, int x0, int x1, double min, double max) {
+			int h = raster.getHeight();
+			double scale = (double)h / (max - min);
+			if (Double.isInfinite(scale)) return;
+			for (int x = x0; x < x1; x++) {
+				if (lo[x] > hi[x]) continue;
+				int y0 = Math.max(0, h - (int)Math.ceil((hi[x] - min) * scale));
+				int y1 = Math.min(h - 1, h - (int)Math.ceil((lo[x] - min) * scale));
+				for (int y = y0; y <= y1; y++)
+					raster.setSample(x, y, ch, 255);
+			}
+		}
+
+	}
+
 }
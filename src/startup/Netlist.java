@@ -0,0 +1,272 @@
+package startup;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntFunction;
+
+import electricity.Circuit;
+import electricity.CombinedPin;
+import electricity.Component;
+import electricity.IResistorMergable;
+import electricity.Pin;
+import electricity.components.Capacitor;
+import electricity.components.CurrentSource;
+import electricity.components.Diode;
+import electricity.components.Inductor;
+import electricity.components.Junction;
+import electricity.components.MultiMeter;
+import electricity.components.MultiMeter.Unit;
+import electricity.components.Resistor;
+import electricity.components.Transistor;
+import electricity.components.VoltageSource;
+import electricity.components.WorkResistor;
+
+/**
+ * Compiled circuit plan: the assembled circuits are stored in a compact binary file, so loading them only creates the components and their junctions
+ * instead of parsing the plan and replaying all pin connections with their circuit and resistor merges.<br>
+ * The file holds the declarations of the plan followed by each circuit's components in equation order, with the resistors merged into their pins,
+ * and the junctions as lists of component pin references. Meters keep their channel binding.
+ * Component values are fixed at compile time, so {@link Assembler.Plan#settings} given to the loader only change the simulation settings.
+ */
+public class Netlist {
+
+	/**file format identifier */
+	static final int Magic = 0x434E4554, Version = 1;
+	/**component types */
+	static final byte JUNCTION = 0, RESISTOR = 1, WORK = 2, CAPACITOR = 3, INDUCTOR = 4, VOLTAGE = 5, CURRENT = 6, DIODE = 7, METER = 8, TRANSISTOR = 9;
+
+	/**
+	 * usage: {@code Netlist plan.txt [netlist]}<br>
+	 * compiles the plan into the given file or next to the plan with extension .net, which can then be run like the plan itself.
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("usage: Netlist plan.txt [netlist]");
+			return;
+		}
+		File file = new File(args[0]), out = new File(args.length > 1 ? args[1] : Assembler.name(file, ".net"));
+		try {
+			long t = System.nanoTime();
+			Assembler.Plan plan = Assembler.load(file, new Assembler.Plan(), null);
+			write(out, plan, Circuit.circuits);
+			System.out.printf("%d Tiles, %d Circuits compiled in %.3f ms\n", plan.tiles, Circuit.circuits.size(), (double)(System.nanoTime() - t) * 1e-6D);
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * writes the given freshly loaded circuits, before they were simulated
+	 * @param file the netlist file (replaces its previous content)
+	 * @param plan the plan they were loaded with
+	 * @param circuits the circuits
+	 * @throws IOException if writing failed
+	 * @throws IllegalArgumentException if a circuit contains components not supported by plans
+	 */
+	public static void write(File file, Assembler.Plan plan, Collection<Circuit> circuits) throws IOException {
+		IdentityHashMap<MultiMeter, Integer> channels = new IdentityHashMap<MultiMeter, Integer>();
+		for (int i = 0; i < 3; i++)
+			if (plan.probes[i] != null) channels.put(plan.probes[i], i);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(Magic);
+			out.writeInt(Version);
+			out.writeInt(plan.tiles);
+			out.writeInt(plan.settings.size());
+			for (Map.Entry<String, double[]> e : plan.settings.entrySet()) {
+				out.writeChars(e.getKey());
+				writeArray(out, e.getValue());
+			}
+			for (double[] cfg : plan.cfg)
+				if (cfg == null) out.writeInt(-1);
+				else writeArray(out, cfg);
+			out.writeInt(circuits.size());
+			IdentityHashMap<Component, Integer> index = new IdentityHashMap<Component, Integer>();
+			for (Circuit c : circuits) {
+				Collection<Component> comps = c.components();
+				out.writeInt(comps.size());
+				index.clear();
+				for (Component comp : comps) index.put(comp, index.size());
+				for (Component comp : comps)
+					if (comp instanceof Junction) {
+						//also covers a ground, which is derived from the first junction again
+						Pin[] pins = ((Junction)comp).pins;
+						out.writeByte(JUNCTION);
+						out.writeInt(pins.length);
+						for (Pin p : pins) {
+							int s = 0;
+							while (p.I.pin(s) != p) s++;
+							out.writeInt(index.get(p.I));
+							out.writeByte(s);
+						}
+					} else {
+						writeComponent(out, comp, channels);
+						for (Pin p : comp.getPins())
+							if (p instanceof CombinedPin) {
+								CombinedPin cp = (CombinedPin)p;
+								out.writeInt(cp.content.size());
+								out.writeDouble(cp.R);
+								for (Resistor r : cp.content) out.writeDouble(r.R);
+							} else out.writeInt(0);
+					}
+			}
+		}
+	}
+
+	private static void writeComponent(DataOutputStream out, Component c, IdentityHashMap<MultiMeter, Integer> channels) throws IOException {
+		//subclasses first
+		if (c instanceof WorkResistor) {
+			WorkResistor r = (WorkResistor)c;
+			out.writeByte(WORK);
+			out.writeDouble(r.Rwork);
+			out.writeDouble(r.T);
+		} else if (c instanceof Resistor) {
+			out.writeByte(RESISTOR);
+			out.writeDouble(((Resistor)c).R);
+		} else if (c instanceof Capacitor) {
+			Capacitor cap = (Capacitor)c;
+			out.writeByte(CAPACITOR);
+			out.writeDouble(cap.voltage());
+			out.writeDouble(cap.C);
+		} else if (c instanceof Inductor) {
+			Inductor ind = (Inductor)c;
+			out.writeByte(INDUCTOR);
+			out.writeDouble(ind.current());
+			out.writeDouble(ind.L);
+		} else if (c instanceof VoltageSource) {
+			out.writeByte(VOLTAGE);
+			out.writeDouble(((VoltageSource)c).voltage());
+		} else if (c instanceof CurrentSource) {
+			out.writeByte(CURRENT);
+			out.writeDouble(((CurrentSource)c).current());
+		} else if (c instanceof Diode) {
+			out.writeByte(DIODE);
+		} else if (c instanceof MultiMeter) {
+			Integer ch = channels.get(c);
+			out.writeByte(METER);
+			out.writeByte(((MultiMeter)c).unit().ordinal());
+			out.writeByte(ch == null ? -1 : ch);
+		} else if (c instanceof Transistor) {
+			Transistor t = (Transistor)c;
+			out.writeByte(TRANSISTOR);
+			out.writeDouble(t.Xn);
+			out.writeDouble(t.Xi);
+		} else throw new IllegalArgumentException("can't compile " + c.getClass().getName());
+	}
+
+	private static void writeArray(DataOutputStream out, double[] data) throws IOException {
+		out.writeInt(data.length);
+		for (double x : data) out.writeDouble(x);
+	}
+
+	/**
+	 * builds the circuits of a netlist, which are added to {@link Circuit#circuits}.
+	 * @param in the netlist from its start
+	 * @param plan receives the simulation settings, its random source is used for the components if set and its {@link Assembler.Plan#settings} override the ones of the plan
+	 * @param meters provides the sink for each measured channel (0 = red, 1 = green, 2 = blue) or null to discard all samples
+	 * @return the given plan
+	 * @throws IOException if the netlist is invalid or creating the sample files failed
+	 */
+	static Assembler.Plan read(ByteBuffer in, Assembler.Plan plan, IntFunction<DoubleConsumer> meters) throws IOException {
+		try {
+			if (in.getInt() != Magic || in.getInt() != Version) throw new IOException("invalid netlist file");
+			plan.tiles = in.getInt();
+			for (int n = in.getInt(); n > 0; n--) {
+				String key = "" + in.getChar() + in.getChar();
+				plan.settings.putIfAbsent(key, readArray(in));
+			}
+			plan.configure();
+			for (int i = 0; i < 3; i++) plan.cfg[i] = readArray(in);
+			ArrayList<int[]> junctions = new ArrayList<int[]>();
+			for (int n = in.getInt(); n > 0; n--) {
+				Component[] comps = new Component[in.getInt()];
+				junctions.clear();
+				for (int i = 0; i < comps.length; i++) {
+					byte type = in.get();
+					if (type == JUNCTION) {
+						//resolved after all components of the circuit exist
+						int[] pins = new int[in.getInt() * 2 + 1];
+						pins[0] = i;
+						for (int j = 1; j < pins.length; j += 2) {
+							pins[j] = in.getInt();
+							pins[j + 1] = in.get();
+						}
+						junctions.add(pins);
+						continue;
+					}
+					Component c = comps[i] = readComponent(in, type, plan, meters);
+					Pin[] slots = c.getPins();
+					for (Pin p : slots) {
+						int k = in.getInt();
+						if (k == 0) continue;
+						CombinedPin cp = new CombinedPin(p);
+						c.swapPin(cp.link);
+						double R = in.getDouble();
+						for (; k > 0; k--) {
+							Resistor r = new Resistor(in.getDouble());
+							cp.addResistor(r, r.A);
+						}
+						cp.R = R;
+					}
+					if (c instanceof IResistorMergable) ((IResistorMergable)c).updateResistor();
+				}
+				for (int[] j : junctions) {
+					Pin[] pins = new Pin[j.length / 2];
+					for (int k = 0; k < pins.length; k++)
+						pins[k] = comps[j[k * 2 + 1]].pin(j[k * 2 + 2]);
+					comps[j[0]] = new Junction(pins);
+				}
+				Circuit.assemble(comps);
+			}
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | NullPointerException e) {
+			throw new IOException("invalid netlist file", e);
+		}
+		if (Circuit.circuits.size() > 1 && Runtime.getRuntime().availableProcessors() > 1)
+			Circuit.pool = ForkJoinPool.commonPool();
+		return plan;
+	}
+
+	private static Component readComponent(ByteBuffer in, byte type, Assembler.Plan plan, IntFunction<DoubleConsumer> meters) throws IOException {
+		switch(type) {
+		case RESISTOR: return new Resistor(in.getDouble());
+		case WORK: return new WorkResistor(in.getDouble(), in.getDouble(), plan.rand == null ? new SplittableRandom() : plan.rand.split());
+		case CAPACITOR: return new Capacitor(in.getDouble(), in.getDouble());
+		case INDUCTOR: return new Inductor(in.getDouble(), in.getDouble());
+		case VOLTAGE: return new VoltageSource(in.getDouble());
+		case CURRENT: return new CurrentSource(in.getDouble());
+		case DIODE: return new Diode();
+		case METER: {
+			Unit unit = Unit.values()[in.get()];
+			int ch = in.get();
+			DoubleConsumer out = meters == null || ch < 0 ? null : meters.apply(ch);
+			MultiMeter meter = new MultiMeter(unit, out == null ? v -> {} : out);
+			//adaptive steps are resampled to one sample per tick
+			if (plan.tolerance > 0) meter.resample(plan.dt);
+			if (ch >= 0) plan.probes[ch] = meter;
+			return meter;
+		}
+		case TRANSISTOR: return new Transistor(in.getDouble(), in.getDouble());
+		default: throw new IOException("invalid component type " + type);
+		}
+	}
+
+	private static double[] readArray(ByteBuffer in) {
+		int n = in.getInt();
+		if (n < 0) return null;
+		double[] data = new double[n];
+		for (int i = 0; i < n; i++) data[i] = in.getDouble();
+		return data;
+	}
+
+}
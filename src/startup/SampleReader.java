@@ -0,0 +1,89 @@
+package startup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Random access to samples recorded by a {@link SampleWriter}.<br>
+ * The file is memory mapped in windows of fixed size, so arbitrarily long recordings can be read without loading them into the heap.
+ */
+public class SampleReader implements Closeable {
+
+	/**amount of samples per mapped window */
+	static final int Window = 1 << 21;
+
+	private final FileChannel channel;
+	private final long length;
+	private DoubleBuffer window;
+	private long start = -1;
+
+	/**
+	 * @param file a file written by {@link SampleWriter}
+	 * @throws IOException if the file can't be opened
+	 */
+	public SampleReader(File file) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.length = channel.size() / 8;
+	}
+
+	/**
+	 * @return amount of recorded samples
+	 */
+	public long length() {
+		return length;
+	}
+
+	/**
+	 * @param i sample index
+	 * @return the sample value
+	 * @throws IOException if mapping the file failed
+	 * @throws IndexOutOfBoundsException if i is not in {@code 0 <= i < length()}
+	 */
+	public double get(long i) throws IOException {
+		if (i < 0 || i >= length) throw new IndexOutOfBoundsException(Long.toString(i));
+		map(i);
+		return window.get((int)(i - start));
+	}
+
+	/**
+	 * reads a sequence of samples
+	 * @param pos index of the first sample
+	 * @param dst array to store the samples in
+	 * @param off first index in dst
+	 * @param len maximum amount of samples to read
+	 * @return amount of samples actually read (less than len at the end of the recording)
+	 * @throws IOException if mapping the file failed
+	 */
+	public int read(long pos, double[] dst, int off, int len) throws IOException {
+		if (pos + len > length) len = (int)Math.max(0, length - pos);
+		for (int n = len; n > 0;) {
+			map(pos);
+			int i = (int)(pos - start), k = Math.min(n, window.limit() - i);
+			window.position(i);
+			window.get(dst, off, k);
+			off += k;
+			pos += k;
+			n -= k;
+		}
+		return len;
+	}
+
+	private void map(long i) throws IOException {
+		long s = i / Window * Window;
+		if (s == start) return;
+		window = channel.map(MapMode.READ_ONLY, s * 8, Math.min(Window, length - s) * 8).asDoubleBuffer();
+		start = s;
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+
+}
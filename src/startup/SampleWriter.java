@@ -0,0 +1,64 @@
+package startup;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Measurement sink that appends the samples to a file in chunks, so its memory use doesn't depend on the amount of simulated cycles.<br>
+ * The file is a plain sequence of big endian doubles that can be accessed afterwards via {@link SampleReader}.
+ */
+public class SampleWriter implements DoubleConsumer, Closeable {
+
+	/**amount of samples buffered before writing them to the file */
+	static final int ChunkSize = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buf = ByteBuffer.allocateDirect(ChunkSize * 8);
+	private long count;
+
+	/**
+	 * @param file the file to write to (replaces its previous content)
+	 * @throws IOException if the file can't be opened
+	 */
+	public SampleWriter(File file) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	@Override
+	public void accept(double value) {
+		if (!buf.hasRemaining()) flush();
+		buf.putDouble(value);
+		count++;
+	}
+
+	/**
+	 * @return amount of samples written so far
+	 */
+	public long count() {
+		return count;
+	}
+
+	private void flush() {
+		buf.flip();
+		try {
+			while (buf.hasRemaining()) channel.write(buf);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		buf.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!channel.isOpen()) return;
+		flush();
+		channel.close();
+	}
+
+}
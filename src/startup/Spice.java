@@ -0,0 +1,403 @@
+package startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntFunction;
+
+import electricity.Circuit;
+import electricity.Pin;
+import electricity.components.BiPole;
+import electricity.components.Capacitor;
+import electricity.components.CurrentSource;
+import electricity.components.Diode;
+import electricity.components.Inductor;
+import electricity.components.MultiMeter;
+import electricity.components.MultiMeter.Unit;
+import electricity.components.Resistor;
+import electricity.components.Transistor;
+import electricity.components.VoltageSource;
+
+/**
+ * Streaming importer for a subset of SPICE netlists, as alternative to drawn circuit plans for generated circuits.<br>
+ * Supported are the elements R, C, L, V, I (constant values, C and L with optional {@code IC=}), D and Q (NPN or PNP with BF and BR from {@code .model}),
+ * {@code .tran tstep tstop} and {@code .print tran V(a) V(a,b) ...} to record up to three node voltages as channels red, green, blue.
+ * As in SPICE the first line is the title, {@code *} starts a comment, {@code +} continues the previous line and values may have suffixes like k, meg or u.<br>
+ * Lines are read as bytes and node names are kept in a byte keyed hash table, so memory only grows with the amount of nodes and components.
+ * The pins of each node are collected and connected by one {@link Circuit#connectPins(Pin...)} call at the end, without cable resistors.
+ */
+public class Spice {
+
+	/**file extensions recognized as SPICE netlists */
+	static final String[] Extensions = {".cir", ".sp", ".spice", ".ckt"};
+	/**transistor amplification factors used if not declared by a model */
+	static final double DefaultBF = 100, DefaultBR = 1;
+
+	/**
+	 * @return whether the given file is named like a SPICE netlist
+	 */
+	static boolean accepts(File file) {
+		String name = file.getName().toLowerCase();
+		for (String ext : Extensions)
+			if (name.endsWith(ext)) return true;
+		return false;
+	}
+
+	private final Assembler.Plan plan;
+	private final IntFunction<DoubleConsumer> meters;
+	/**open addressing table of node ids + 1 by name hash and the folded names by node id */
+	private int[] table = new int[1024];
+	private byte[][] names = new byte[256][];
+	private int nodes;
+	/**pins of each node as linked lists: first pin index per node and next pin index per pin */
+	private int[] head = new int[256], next = new int[1024];
+	private Pin[] pins = new Pin[1024];
+	private int nPins;
+	/**transistors waiting for their model: collector, base, emitter node and model id */
+	private int[] pending = new int[64];
+	private int nPending;
+	/**models by name: {pnp ? 1 : 0, BF, BR} (null if not declared yet) and their ids */
+	private final HashMap<String, Integer> modelIds = new HashMap<String, Integer>();
+	private double[][] models = new double[4][];
+	private int probes, elements, lineNr;
+	/**token bounds of the current line */
+	private int[] start = new int[16], end = new int[16];
+	private int tokens;
+
+	private Spice(Assembler.Plan plan, IntFunction<DoubleConsumer> meters) {
+		this.plan = plan;
+		this.meters = meters;
+	}
+
+	/**
+	 * builds the circuits of a SPICE netlist, which are added to {@link Circuit#circuits}.
+	 * @param in the netlist
+	 * @param plan receives the simulation settings, its {@link Assembler.Plan#settings} override the ones of {@code .tran}
+	 * @param meters provides the sink for each measured channel (0 = red, 1 = green, 2 = blue) or null to discard all samples
+	 * @return the given plan
+	 * @throws IOException if reading the netlist or creating the sample files failed
+	 */
+	static Assembler.Plan read(Assembler.Source in, Assembler.Plan plan, IntFunction<DoubleConsumer> meters) throws NumberFormatException, IOException {
+		new Spice(plan, meters).read(in);
+		return plan;
+	}
+
+	private void read(Assembler.Source in) throws NumberFormatException, IOException {
+		byte[] line = new byte[256];
+		//skip the title
+		int n = in.readLine(), nr = 1;
+		if (n >= 0 && (n = in.readLine()) >= 0) nr++;
+		while (n >= 0) {
+			lineNr = nr;
+			int len = n;
+			if (line.length <= len) line = new byte[in.line.length];
+			System.arraycopy(in.line, 0, line, 0, len);
+			//append continuation lines
+			while ((n = in.readLine()) >= 0) {
+				nr++;
+				if (n == 0 || in.line[0] != '+') break;
+				if (line.length <= len + n) line = Arrays.copyOf(line, (len + n) * 2);
+				line[len++] = ' ';
+				System.arraycopy(in.line, 1, line, len, n - 1);
+				len += n - 1;
+			}
+			if (!parse(line, len)) break;
+		}
+		connect();
+		plan.tiles = elements;
+		plan.configure();
+		//adaptive steps are resampled to one sample per tick
+		if (plan.tolerance > 0)
+			for (MultiMeter m : plan.probes)
+				if (m != null) m.resample(plan.dt);
+		if (Circuit.circuits.size() > 1 && Runtime.getRuntime().availableProcessors() > 1)
+			Circuit.pool = ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * @return false on {@code .end}
+	 */
+	private boolean parse(byte[] b, int len) throws NumberFormatException {
+		tokenize(b, len);
+		if (tokens == 0 || b[start[0]] == '*') return true;
+		if (b[start[0]] == '.') {
+			if (is(b, 0, ".end")) return false;
+			else if (is(b, 0, ".tran")) {
+				if (tokens < 3) throw error("expected .tran tstep tstop");
+				double dt = value(b, 1), t = value(b, 2);
+				plan.settings.putIfAbsent("XY", new double[] {t, plan.precision, dt});
+			} else if (is(b, 0, ".model")) {
+				if (tokens < 3) throw error("expected .model name type");
+				int id = model(new String(b, start[1], end[1] - start[1]).toLowerCase());
+				double[] m = models[id] = new double[] {is(b, 2, "pnp") ? 1 : 0, DefaultBF, DefaultBR};
+				for (int i = 3; i + 1 < tokens; i += 2)
+					if (is(b, i, "bf")) m[1] = value(b, i + 1);
+					else if (is(b, i, "br")) m[2] = value(b, i + 1);
+			} else if (is(b, 0, ".print") || is(b, 0, ".probe")) {
+				for (int i = 1; i < tokens; i++) {
+					if (!is(b, i, "v")) continue;
+					if (i + 1 >= tokens) throw error("expected V(node)");
+					int n1 = node(b, ++i), n2;
+					//a second node is separated by a comma, otherwise the voltage is measured against node 0
+					if (i + 1 < tokens && comma(b, i)) n2 = node(b, ++i);
+					else n2 = node("0");
+					if (probes >= 3) {
+						System.err.printf("WARNING line %d: only three probes are recorded\n", lineNr);
+						continue;
+					}
+					int ch = probes++;
+					DoubleConsumer out = meters == null ? null : meters.apply(ch);
+					MultiMeter meter = new MultiMeter(Unit.Volt, out == null ? v -> {} : out);
+					plan.probes[ch] = meter;
+					plan.cfg[ch] = new double[] {Unit.Volt.ordinal()};
+					add(n1, meter.A);
+					add(n2, meter.B);
+				}
+			}
+			return true;
+		}
+		if (tokens < 3) throw error("expected name and nodes");
+		elements++;
+		switch(b[start[0]] | 0x20) {
+		case 'r': bipole(b, new Resistor(value(b, 3)), 1, 2); break;
+		case 'c': bipole(b, new Capacitor(initial(b), value(b, 3)), 2, 1); break;
+		case 'l': bipole(b, new Inductor(initial(b), value(b, 3)), 1, 2); break;
+		case 'v': bipole(b, new VoltageSource(source(b)), 2, 1); break;
+		case 'i': bipole(b, new CurrentSource(source(b)), 1, 2); break;
+		case 'd': bipole(b, new Diode(), 1, 2); break;
+		case 'q': {
+			if (tokens < 4) throw error("expected Q collector base emitter [model]");
+			if (nPending + 4 > pending.length) pending = Arrays.copyOf(pending, pending.length * 2);
+			pending[nPending++] = node(b, 1);
+			pending[nPending++] = node(b, 2);
+			pending[nPending++] = node(b, 3);
+			pending[nPending++] = tokens > 4 ? model(new String(b, start[4], end[4] - start[4]).toLowerCase()) : -1;
+		} break;
+		default:
+			elements--;
+			System.err.printf("WARNING line %d: unsupported element %s ignored\n", lineNr, new String(b, start[0], end[0] - start[0]));
+		}
+		return true;
+	}
+
+	/**
+	 * adds the given component with pin A at the node of token a and pin B at the node of token b
+	 */
+	private void bipole(byte[] b, BiPole comp, int a, int bb) {
+		add(node(b, a), comp.A);
+		add(node(b, bb), comp.B);
+	}
+
+	/**
+	 * @return the initial value given by {@code IC=} or 0
+	 */
+	private double initial(byte[] b) {
+		for (int i = 4; i + 1 < tokens; i++)
+			if (is(b, i, "ic")) return value(b, i + 1);
+		return 0;
+	}
+
+	/**
+	 * @return the constant value of a source, optionally preceded by DC
+	 */
+	private double source(byte[] b) {
+		int i = is(b, 3, "dc") ? 4 : 3;
+		if (i >= tokens) throw error("missing value");
+		byte c = b[start[i]];
+		if (!(c >= '0' && c <= '9' || c == '.' || c == '-' || c == '+')) throw error("only constant sources are supported");
+		return value(b, i);
+	}
+
+	/**
+	 * builds the transistors and connects the pins of each node
+	 */
+	private void connect() {
+		for (int i = 0; i < nPending; i += 4) {
+			int id = pending[i + 3];
+			double[] m = id < 0 ? null : models[id];
+			if (m == null && id >= 0) {
+				for (String name : modelIds.keySet())
+					if (modelIds.get(name) == id) System.err.printf("WARNING transistor model %s not declared, using NPN defaults\n", name);
+				models[id] = m = new double[] {0, DefaultBF, DefaultBR};
+			}
+			boolean npn = m == null || m[0] == 0;
+			Transistor t = new Transistor(m == null ? DefaultBF : m[1], m == null ? DefaultBR : m[2]);
+			//both base pins share the base node
+			add(pending[i], npn ? t.C2 : t.C1);
+			add(pending[i + 1], npn ? t.E1 : t.E2);
+			add(pending[i + 1], npn ? t.C1 : t.C2);
+			add(pending[i + 2], npn ? t.E2 : t.E1);
+		}
+		pending = null;
+		Pin[] p = new Pin[16];
+		for (int n = 0; n < nodes; n++) {
+			int k = 0;
+			for (int i = head[n]; i >= 0; i = next[i]) {
+				if (k == p.length) p = Arrays.copyOf(p, k * 2);
+				p[k++] = pins[i];
+			}
+			if (k == 0) continue;
+			if (k == 1) System.err.printf("WARNING open node %s\n", new String(names[n]));
+			Circuit.connectPins(Arrays.copyOf(p, k));
+		}
+		pins = null;
+	}
+
+	private void add(int node, Pin pin) {
+		if (nPins == pins.length) {
+			pins = Arrays.copyOf(pins, nPins * 2);
+			next = Arrays.copyOf(next, nPins * 2);
+		}
+		pins[nPins] = pin;
+		next[nPins] = head[node];
+		head[node] = nPins++;
+	}
+
+	private int model(String name) {
+		Integer id = modelIds.get(name);
+		if (id != null) return id;
+		id = modelIds.size();
+		modelIds.put(name, id);
+		if (id >= models.length) models = Arrays.copyOf(models, id * 2);
+		return id;
+	}
+
+	private int node(String name) {
+		byte[] b = name.getBytes();
+		return node(b, 0, b.length);
+	}
+
+	private int node(byte[] b, int i) {
+		return node(b, start[i], end[i]);
+	}
+
+	/**
+	 * @return id of the node with the given name (case insensitive), added if new
+	 */
+	private int node(byte[] b, int from, int to) {
+		int h = 0;
+		for (int i = from; i < to; i++) h = h * 31 + lower(b[i]);
+		int mask = table.length - 1;
+		for (h = (h ^ h >>> 16) & mask;; h = h + 1 & mask) {
+			int id = table[h] - 1;
+			if (id < 0) break;
+			byte[] name = names[id];
+			if (name.length != to - from) continue;
+			int i = 0;
+			while (i < name.length && name[i] == lower(b[from + i])) i++;
+			if (i == name.length) return id;
+		}
+		int id = nodes++;
+		if (id == names.length) {
+			names = Arrays.copyOf(names, id * 2);
+			head = Arrays.copyOf(head, id * 2);
+		}
+		byte[] name = names[id] = new byte[to - from];
+		for (int i = 0; i < name.length; i++) name[i] = lower(b[from + i]);
+		head[id] = -1;
+		table[h] = id + 1;
+		if (nodes * 2 > table.length) rehash();
+		return id;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for (int id = 0; id < nodes; id++) {
+			int h = 0;
+			for (byte c : names[id]) h = h * 31 + c;
+			for (h = (h ^ h >>> 16) & mask; table[h] != 0; h = h + 1 & mask);
+			table[h] = id + 1;
+		}
+	}
+
+	private static byte lower(byte c) {
+		return c >= 'A' && c <= 'Z' ? (byte)(c | 0x20) : c;
+	}
+
+	/**
+	 * splits the line at white space, brackets, commas and equal signs
+	 */
+	private void tokenize(byte[] b, int len) {
+		tokens = 0;
+		for (int i = 0; i < len;) {
+			while (i < len && separator(b[i])) i++;
+			if (i == len) break;
+			if (tokens == start.length) {
+				start = Arrays.copyOf(start, tokens * 2);
+				end = Arrays.copyOf(end, tokens * 2);
+			}
+			start[tokens] = i;
+			while (i < len && !separator(b[i])) i++;
+			end[tokens++] = i;
+		}
+	}
+
+	private static boolean separator(byte c) {
+		return c <= ' ' || c == '(' || c == ')' || c == ',' || c == '=';
+	}
+
+	/**
+	 * @return whether a comma comes between token i and the next one
+	 */
+	private boolean comma(byte[] b, int i) {
+		for (int j = end[i]; j < start[i + 1]; j++)
+			if (b[j] == ',') return true;
+		return false;
+	}
+
+	/**
+	 * @return whether token i equals the given lower case word, ignoring case
+	 */
+	private boolean is(byte[] b, int i, String word) {
+		if (i >= tokens || end[i] - start[i] != word.length()) return false;
+		for (int j = 0; j < word.length(); j++)
+			if (lower(b[start[i] + j]) != word.charAt(j)) return false;
+		return true;
+	}
+
+	/**
+	 * @return the number of token i with its scale suffix (f, p, n, u, m, k, meg, g, t), following letters like units are ignored
+	 */
+	private double value(byte[] b, int i) {
+		if (i >= tokens) throw error("missing value");
+		int p = start[i], e = end[i], q = p;
+		if (q < e && (b[q] == '-' || b[q] == '+')) q++;
+		while (q < e && (b[q] >= '0' && b[q] <= '9' || b[q] == '.')) q++;
+		//exponent only if followed by digits, so that units aren't mistaken for one
+		if (q + 1 < e && (b[q] | 0x20) == 'e') {
+			int r = q + 1;
+			if (b[r] == '-' || b[r] == '+') r++;
+			if (r < e && b[r] >= '0' && b[r] <= '9') {
+				q = r;
+				while (q < e && b[q] >= '0' && b[q] <= '9') q++;
+			}
+		}
+		double x;
+		try {
+			x = Double.parseDouble(new String(b, p, q - p));
+		} catch (NumberFormatException ex) {
+			throw error("invalid number " + new String(b, p, e - p));
+		}
+		if (q == e) return x;
+		switch(lower(b[q])) {
+		case 'f': return x * 1e-15;
+		case 'p': return x * 1e-12;
+		case 'n': return x * 1e-9;
+		case 'u': return x * 1e-6;
+		case 'm': return q + 2 < e && lower(b[q + 1]) == 'e' && lower(b[q + 2]) == 'g' ? x * 1e6 : x * 1e-3;
+		case 'k': return x * 1e3;
+		case 'g': return x * 1e9;
+		case 't': return x * 1e12;
+		default: return x;
+		}
+	}
+
+	private NumberFormatException error(String msg) {
+		return new NumberFormatException("line " + lineNr + ": " + msg);
+	}
+
+}
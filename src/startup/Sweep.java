@@ -0,0 +1,246 @@
+package startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.DoubleConsumer;
+
+import electricity.Circuit;
+
+/**
+ * Parameter sweep that simulates one variant of a circuit plan for each combination of the swept values, in parallel.<br>
+ * The plan is read only once and all variants reuse the elimination order analyzed on the unmodified plan,
+ * because changed component values don't change the equation layout.
+ * Each variant still builds its own components, as they carry the simulation state.
+ */
+public class Sweep {
+
+	/**
+	 * usage: {@code Sweep plan.txt [-settle seconds] Name[.index]=from:to:steps[:log]...}<br>
+	 * For example {@code R1=10:1000:20:log C1.1=1e-6:1e-5:10} sweeps the resistance of R1 and the capacity of C1.
+	 * Writes the swept values and the statistics of the measured channels as CSV to the standard output.
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.err.println("usage: Sweep plan.txt [-settle seconds] Name[.index]=from:to:steps[:log]...");
+			return;
+		}
+		try {
+			Sweep sweep = new Sweep(new File(args[0]));
+			for (int i = 1; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("-settle")) {
+					sweep.settle = Double.parseDouble(args[++i]);
+					continue;
+				}
+				int p = arg.indexOf('='), q = arg.indexOf('.');
+				if (p < 0) throw new IllegalArgumentException("invalid range: " + arg);
+				String[] r = arg.substring(p + 1).split(":");
+				if (r.length < 3) throw new IllegalArgumentException("invalid range: " + arg);
+				sweep.range(
+					arg.substring(0, q >= 0 && q < p ? q : p),
+					q >= 0 && q < p ? Integer.parseInt(arg.substring(q + 1, p)) : 0,
+					Double.parseDouble(r[0]), Double.parseDouble(r[1]), Integer.parseInt(r[2]),
+					r.length > 3 && r[3].equals("log")
+				);
+			}
+			long t = System.nanoTime();
+			List<Point> points = sweep.run();
+			t = System.nanoTime() - t;
+			StringBuilder sb = new StringBuilder();
+			for (Range r : sweep.ranges) sb.append(r.name).append('.').append(r.index).append(',');
+			for (int ch = 0; ch < 3; ch++)
+				if (points.get(0).channels[ch] != null)
+					for (String s : Channel.Columns)
+						sb.append("rgb".charAt(ch)).append('_').append(s).append(',');
+			sb.setLength(sb.length() - 1);
+			System.out.println(sb);
+			for (Point p : points) System.out.println(p);
+			System.err.printf("%d variants simulated in %.3f ms\n", points.size(), (double)t * 1e-6D);
+		} catch (IOException | IllegalArgumentException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private final byte[] text;
+	private final Assembler.Plan base;
+	/**circuits of the unmodified plan after one tick, providing the symbolic analysis */
+	private final List<Circuit> template;
+	private final ArrayList<Range> ranges = new ArrayList<Range>();
+	/**[s] simulated time before measurements count into the statistics */
+	public double settle;
+
+	/**
+	 * loads the plan and analyzes its equations
+	 * @param file the circuit plan
+	 * @throws IOException if reading the plan failed
+	 */
+	public Sweep(File file) throws NumberFormatException, IOException {
+		text = Files.readAllBytes(file.toPath());
+		int n = Circuit.circuits.size();
+		base = Assembler.load(ByteBuffer.wrap(text), new Assembler.Plan(), null);
+		template = detach(n);
+		for (Circuit c : template) c.update(base.dt);
+	}
+
+	/**
+	 * adds a swept value, the variants cover all combinations of the values of all ranges
+	 * @param name identifier of the declared object, like "R1" for {@code R1[100]}
+	 * @param index which of its numbers to vary, like 1 for the capacity of a capacitor
+	 * @param from first value
+	 * @param to last value
+	 * @param steps amount of values
+	 * @param log whether the values are spaced logarithmically instead of linearly
+	 * @return this
+	 * @throws IllegalArgumentException if the plan doesn't declare such a value
+	 */
+	public Sweep range(String name, int index, double from, double to, int steps, boolean log) {
+		double[] data = base.settings.get(name);
+		if (data == null || index < 0 || index >= data.length) throw new IllegalArgumentException("plan doesn't declare " + name + "." + index);
+		if (steps < 1 || log && (from <= 0 || to <= 0)) throw new IllegalArgumentException("invalid range for " + name + "." + index);
+		ranges.add(new Range(name, index, from, to, steps, log));
+		return this;
+	}
+
+	/**
+	 * builds all variants and simulates them in parallel for the simulation time of the plan
+	 * @return the variants in order of their swept values, with the last range varying fastest
+	 * @throws IOException if the plan couldn't be built
+	 */
+	public List<Point> run() throws NumberFormatException, IOException {
+		int total = 1;
+		for (Range r : ranges) total = Math.multiplyExact(total, r.steps);
+		ArrayList<Point> points = new ArrayList<Point>(total);
+		//built one after another, because the circuits are registered globally while assembling
+		for (int i = 0; i < total; i++) {
+			Assembler.Plan plan = new Assembler.Plan();
+			double[] values = new double[ranges.size()];
+			for (int k = values.length - 1, j = i; k >= 0; k--) {
+				Range r = ranges.get(k);
+				values[k] = r.value(j % r.steps);
+				j /= r.steps;
+				plan.settings.computeIfAbsent(r.name, key -> base.settings.get(key).clone())[r.index] = values[k];
+			}
+			Point p = new Point(values);
+			int n = Circuit.circuits.size(), skip = (int)Math.ceil(settle / base.dt);
+			Assembler.load(ByteBuffer.wrap(text), plan, ch -> p.channels[ch] = new Channel(skip));
+			p.plan = plan;
+			p.circuits = detach(n);
+			for (int k = 0; k < p.circuits.size() && k < template.size(); k++)
+				p.circuits.get(k).reuse(template.get(k));
+			points.add(p);
+		}
+		points.parallelStream().forEach(Point::simulate);
+		return points;
+	}
+
+	/**
+	 * removes the circuits built since the given amount from {@link Circuit#circuits}, so they are only simulated by this sweep
+	 * @return the removed circuits
+	 */
+	private static List<Circuit> detach(int n) {
+		ArrayList<Circuit> list = new ArrayList<Circuit>(Circuit.circuits);
+		ArrayList<Circuit> added = new ArrayList<Circuit>(list.subList(n, list.size()));
+		Circuit.circuits.removeAll(new HashSet<Circuit>(added));
+		return added;
+	}
+
+	static class Range {
+		final String name;
+		final int index, steps;
+		final double from, to;
+		final boolean log;
+
+		Range(String name, int index, double from, double to, int steps, boolean log) {
+			this.name = name;
+			this.index = index;
+			this.from = from;
+			this.to = to;
+			this.steps = steps;
+			this.log = log;
+		}
+
+		double value(int i) {
+			if (steps == 1) return from;
+			double f = (double)i / (double)(steps - 1);
+			return log ? from * Math.pow(to / from, f) : from + (to - from) * f;
+		}
+	}
+
+	/**
+	 * One variant of the plan
+	 */
+	public static class Point {
+		/**values of the swept settings in order of their ranges */
+		public final double[] values;
+		/**statistics of the measured channels red, green, blue (null if unused) */
+		public final Channel[] channels = new Channel[3];
+		Assembler.Plan plan;
+		List<Circuit> circuits;
+
+		Point(double[] values) {
+			this.values = values;
+		}
+
+		void simulate() {
+			for (int i = 0; i < plan.cycles; i++)
+				for (Circuit c : circuits)
+					c.update(plan.dt);
+			//only the statistics are kept
+			circuits = null;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (double x : values) sb.append(x).append(',');
+			for (Channel c : channels)
+				if (c != null) sb.append(c).append(',');
+			sb.setLength(Math.max(0, sb.length() - 1));
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * Statistics of one measured channel over the simulation time, after skipping the settling time
+	 */
+	public static class Channel implements DoubleConsumer {
+
+		static final String[] Columns = {"min", "max", "mean", "rms", "last"};
+
+		private int skip;
+		/**amount of samples counted */
+		public int n;
+		public double min, max, mean, rms, last;
+		private double sq;
+
+		Channel(int skip) {
+			this.skip = skip;
+		}
+
+		@Override
+		public void accept(double x) {
+			last = x;
+			if (skip > 0) {
+				skip--;
+				return;
+			}
+			if (n++ == 0) min = max = x;
+			else if (x < min) min = x;
+			else if (x > max) max = x;
+			mean += (x - mean) / (double)n;
+			sq += x * x;
+			rms = Math.sqrt(sq / (double)n);
+		}
+
+		@Override
+		public String toString() {
+			return min + "," + max + "," + mean + "," + rms + "," + last;
+		}
+	}
+
+}